@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.File;
+import java.io.IOException;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.RunnerException;
+import se.trixon.mapollage.profile.Profile;
+
+/**
+ * Runs the benchmarks, with the gc profiler unless another profiler is
+ * given, so both the throughput and the allocation rate are reported.
+ * <p>
+ * Takes the JMH command line options, build with {@code mvn install} in the
+ * project directory and {@code mvn package} in this one, then run
+ * {@code java -jar target/benchmarks.jar}.
+ *
+ * @author Patrik Karlström
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        boolean profiler = false;
+        for (String arg : args) {
+            profiler |= arg.equals("-prof");
+        }
+
+        if (!profiler) {
+            String[] profilerArgs = new String[args.length + 2];
+            profilerArgs[0] = "-prof";
+            profilerArgs[1] = "gc";
+            System.arraycopy(args, 0, profilerArgs, 2, args.length);
+            args = profilerArgs;
+        }
+
+        Main.main(args);
+    }
+
+    /**
+     * @return a listener that ignores everything
+     */
+    static OperationListener createListener() {
+        return new OperationListener() {
+            @Override
+            public void onOperationError(String message) {
+            }
+
+            @Override
+            public void onOperationFailed(String message) {
+            }
+
+            @Override
+            public void onOperationFinished(String message, int placemarkCount) {
+            }
+
+            @Override
+            public void onOperationInterrupted() {
+            }
+
+            @Override
+            public void onOperationLog(String message) {
+            }
+
+            @Override
+            public void onOperationProcessingStarted() {
+            }
+
+            @Override
+            public void onOperationProgress(String message) {
+            }
+
+            @Override
+            public void onOperationProgress(int value, int max) {
+            }
+
+            @Override
+            public void onOperationStarted() {
+            }
+        };
+    }
+
+    /**
+     * @return a profile with the default settings for the photos of the
+     * directory and its sub directories
+     */
+    static Profile createProfile(File dir, File destinationFile) {
+        Profile profile = new Profile();
+        profile.setName("benchmark");
+        profile.getSource().setDir(dir);
+        profile.getSource().setFilePattern("{*.jpg,*.JPG}");
+        profile.getSource().setRecursive(true);
+        profile.setDestinationFile(destinationFile);
+        profile.isValid();
+
+        return profile;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Writes synthetic photos, so the benchmarks run without a photo collection.
+ * <p>
+ * Every photo is a gradient JPEG with an EXIF segment holding the date and
+ * the orientation, and a GPS position for nine photos out of ten. The
+ * photos are spread over three directories, with a nested one, and taken
+ * one to 120 minutes apart along a random walk. The same seed gives the
+ * same corpus.
+ *
+ * @author Patrik Karlström
+ */
+class CorpusGenerator {
+
+    private static final DateTimeFormatter EXIF_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+    private static final long START_TIME = 1530000000000L;
+
+    private final Random mRandom;
+
+    /**
+     * Writes a corpus, arguments: directory, count and optionally width.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CorpusGenerator <dir> <count> [width]");
+            System.exit(1);
+        }
+
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 640;
+        new CorpusGenerator(42).generate(new File(args[0]), Integer.parseInt(args[1]), width);
+    }
+
+    CorpusGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param dir created if missing
+     * @param count
+     * @param width of the photos in pixels, the height is three quarters of
+     * it
+     * @return the photos, in the order they were taken
+     */
+    List<File> generate(File dir, int count, int width) throws IOException {
+        ArrayList<File> files = new ArrayList<>(count);
+        long time = START_TIME;
+
+        for (int i = 0; i < count; i++) {
+            File subDir = new File(dir, String.format("d%d%s", i % 3, i % 6 == 0 ? "/x" : ""));
+            FileUtils.forceMkdir(subDir);
+
+            double lat = 57.6 + mRandom.nextGaussian() * 0.05 + (i % 3) * 0.2;
+            double lon = 11.9 + mRandom.nextGaussian() * 0.05;
+            if (i % 10 == 9) {
+                lat = Double.NaN;
+            }
+            time += 60000L * (1 + mRandom.nextInt(120));
+            int orientation = i % 7 == 0 ? 6 : 1;
+
+            File file = new File(subDir, String.format("IMG_%05d.jpg", i));
+            write(file, width, width * 3 / 4, time, lat, lon, orientation);
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    private byte[] createExif(long time, double lat, double lon, int orientation) {
+        boolean gps = !Double.isNaN(lat);
+        int numOfEntries = gps ? 3 : 2;
+        int exifOffset = 8 + 2 + numOfEntries * 12 + 4;
+        int dateOffset = exifOffset + 2 + 12 + 4;
+        int gpsOffset = dateOffset + 20;
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+
+        //IFD0
+        buffer.putShort((short) numOfEntries);
+        putEntry(buffer, 0x0112, 3, 1, orientation << 16);
+        putEntry(buffer, 0x8769, 4, 1, exifOffset);
+        if (gps) {
+            putEntry(buffer, 0x8825, 4, 1, gpsOffset);
+        }
+        buffer.putInt(0);
+
+        //Exif sub IFD, DateTimeOriginal
+        buffer.putShort((short) 1);
+        putEntry(buffer, 0x9003, 2, 20, dateOffset);
+        buffer.putInt(0);
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        buffer.put(EXIF_DATE_FORMAT.format(dateTime).getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+
+        if (gps) {
+            int latOffset = gpsOffset + 2 + 5 * 12 + 4;
+            int lonOffset = latOffset + 24;
+            buffer.putShort((short) 5);
+            putEntry(buffer, 0x0000, 1, 4, 0x02020000);
+            putEntry(buffer, 0x0001, 2, 2, (lat < 0 ? 'S' : 'N') << 24);
+            putEntry(buffer, 0x0002, 5, 3, latOffset);
+            putEntry(buffer, 0x0003, 2, 2, (lon < 0 ? 'W' : 'E') << 24);
+            putEntry(buffer, 0x0004, 5, 3, lonOffset);
+            buffer.putInt(0);
+            putDegrees(buffer, Math.abs(lat));
+            putDegrees(buffer, Math.abs(lon));
+        }
+
+        byte[] exif = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(exif);
+
+        return exif;
+    }
+
+    private byte[] createJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(mRandom.nextInt()), width, height, new Color(mRandom.nextInt())));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", outputStream);
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Writes degrees, minutes and seconds as three rationals.
+     */
+    private void putDegrees(ByteBuffer buffer, double value) {
+        int degrees = (int) value;
+        double minutes = (value - degrees) * 60;
+        double seconds = (minutes - (int) minutes) * 60;
+
+        buffer.putInt(degrees).putInt(1)
+                .putInt((int) minutes).putInt(1)
+                .putInt((int) Math.round(seconds * 1000)).putInt(1000);
+    }
+
+    private void putEntry(ByteBuffer buffer, int tag, int type, int count, int value) {
+        buffer.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    /**
+     * Writes the JPEG with an APP1 Exif segment right after SOI.
+     */
+    private void write(File file, int width, int height, long time, double lat, double lon, int orientation) throws IOException {
+        byte[] jpeg = createJpeg(width, height);
+        byte[] exif = createExif(time, lat, lon, orientation);
+        int length = 2 + 6 + exif.length;
+
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            outputStream.write(jpeg, 0, 2);
+            outputStream.write(0xff);
+            outputStream.write(0xe1);
+            outputStream.write(length >> 8);
+            outputStream.write(length & 0xff);
+            outputStream.write("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+            outputStream.write(exif);
+            outputStream.write(jpeg, 2, jpeg.length - 2);
+        }
+
+        file.setLastModified(time);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import com.drew.imaging.ImageProcessingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.trixon.mapollage.profile.Profile;
+import se.trixon.mapollage.profile.ProfileDescription.DescriptionMode;
+import se.trixon.mapollage.profile.ProfilePhoto;
+
+/**
+ * Rendering the description of a placemark, with the photo referred to by
+ * its absolute path.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+public class DescriptionBenchmark {
+
+    private static final int COUNT = 100;
+
+    @Param({"STATIC", "CUSTOM"})
+    public DescriptionMode mode;
+
+    private File mDir;
+    private List<File> mFiles;
+    private int mIndex;
+    private Operation mOperation;
+    private PhotoInfo[] mPhotoInfos;
+
+    @Benchmark
+    public String getPlacemarkDescription() throws IOException {
+        int index = next();
+        PhotoInfo photoInfo = mPhotoInfos[index];
+
+        return mOperation.getPlacemarkDescription(mFiles.get(index), photoInfo, photoInfo.getDate());
+    }
+
+    @Setup
+    public void setUp() throws ImageProcessingException, IOException {
+        mDir = Files.createTempDirectory("mapollage").toFile();
+        mFiles = new CorpusGenerator(42).generate(mDir, COUNT, 640);
+        mPhotoInfos = new PhotoInfo[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            mPhotoInfos[i] = new PhotoInfo(mFiles.get(i), true);
+            mPhotoInfos[i].init();
+        }
+
+        Profile profile = Benchmarks.createProfile(mDir, new File(mDir, "benchmark.kml"));
+        profile.getDescription().setMode(mode);
+        profile.getPhoto().setReference(ProfilePhoto.Reference.ABSOLUTE);
+        mOperation = new Operation(Benchmarks.createListener(), profile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(mDir);
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) % COUNT;
+
+        return mIndex;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.trixon.mapollage.profile.Profile;
+
+/**
+ * A whole run, scanning, processing, path, polygons and saving, of a
+ * synthetic collection with the default profile.
+ * <p>
+ * The metadata cache and the incremental mode are turned off for the
+ * benchmark and the options are restored afterwards. Every run starts
+ * without output, so all thumbnails are created.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+public class OperationBenchmark {
+
+    @Param({"500"})
+    public int count;
+    @Param({"kml", "kmz"})
+    public String format;
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private File mDestinationDir;
+    private File mDir;
+    private boolean mIncremental;
+    private boolean mMetadataCache;
+    private final Options mOptions = Options.getInstance();
+    private Profile mProfile;
+    private boolean mStreaming;
+
+    @Setup(Level.Invocation)
+    public void clean() throws IOException {
+        FileUtils.cleanDirectory(mDestinationDir);
+    }
+
+    @Benchmark
+    public void run() {
+        new Operation(Benchmarks.createListener(), mProfile).run();
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mIncremental = mOptions.isIncremental();
+        mMetadataCache = mOptions.isMetadataCache();
+        mStreaming = mOptions.isStreaming();
+        mOptions.setIncremental(false);
+        mOptions.setMetadataCache(false);
+        mOptions.setStreaming(streaming);
+
+        mDir = Files.createTempDirectory("mapollage").toFile();
+        mDestinationDir = Files.createTempDirectory("mapollage").toFile();
+        new CorpusGenerator(42).generate(mDir, count, 640);
+        mProfile = Benchmarks.createProfile(mDir, new File(mDestinationDir, "benchmark." + format));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mOptions.setIncremental(mIncremental);
+        mOptions.setMetadataCache(mMetadataCache);
+        mOptions.setStreaming(mStreaming);
+
+        FileUtils.deleteDirectory(mDir);
+        FileUtils.deleteDirectory(mDestinationDir);
+    }
+}
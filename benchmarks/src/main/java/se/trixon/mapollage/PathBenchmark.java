@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.IOException;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drawing the path through the photos, from adding the positions to writing
+ * the simplified line segments.
+ * <p>
+ * The positions arrive as three runs in time order, as the photos of three
+ * directories would.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+public class PathBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+    @Param({"DAYS", "GAP"})
+    public String split;
+    @Param({"0", "10"})
+    public int tolerance;
+
+    private double[] mLats;
+    private double[] mLons;
+    private long[] mTimes;
+
+    @Benchmark
+    public int writePath() throws IOException {
+        Track track = new Track();
+        for (int i = 0; i < size; i++) {
+            track.add(mTimes[i], mLats[i], mLons[i]);
+        }
+        track.sort();
+
+        int[] segments;
+        if (split.equals("GAP")) {
+            segments = track.split(60 * 60000L, 500 / 3.6);
+        } else {
+            segments = track.split(ChronoUnit.valueOf(split));
+        }
+
+        KmlWriter writer = new KmlWriter(NullOutputStream.NULL_OUTPUT_STREAM);
+        int numOfPositions = 0;
+        for (int i = 0; i < segments.length - 1; i++) {
+            int first = segments[i];
+            int last = segments[i + 1] - 1;
+            if (last > first) {
+                int[] indices = tolerance > 0
+                        ? track.simplify(first, last, tolerance)
+                        : IntStream.rangeClosed(first, last).toArray();
+
+                writer.start("LineString").start("coordinates");
+                for (int index : indices) {
+                    writer.coordinate(track.getLon(index), track.getLat(index));
+                }
+                writer.end().end();
+                numOfPositions += indices.length;
+            }
+        }
+        writer.flush();
+
+        return numOfPositions;
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLats = new double[size];
+        mLons = new double[size];
+        mTimes = new long[size];
+
+        double lat = 57.6;
+        double lon = 11.9;
+        long time = 1530000000000L;
+        int[] positions = {0, (size + 2) / 3, (size + 2) / 3 + (size + 1) / 3};
+        for (int i = 0; i < size; i++) {
+            lat += random.nextGaussian() * 0.001;
+            lon += random.nextGaussian() * 0.002;
+            time += 60000L * (1 + random.nextInt(120));
+
+            int position = positions[i % 3]++;
+            mLats[position] = lat;
+            mLons[position] = lon;
+            mTimes[position] = time;
+        }
+    }
+}
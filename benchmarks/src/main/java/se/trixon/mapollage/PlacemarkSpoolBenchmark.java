@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Spooling rendered placemarks to disk and copying them to the document,
+ * the part of saving that grows with the number of photos.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+public class PlacemarkSpoolBenchmark {
+
+    private static final int NUM_OF_FRAGMENTS = 100;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private final byte[][] mFragments = new byte[NUM_OF_FRAGMENTS][];
+    private double[] mLats;
+    private double[] mLons;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        mLats = new double[size];
+        mLons = new double[size];
+        for (int i = 0; i < size; i++) {
+            mLats[i] = 57.6 + random.nextGaussian() * 0.05;
+            mLons[i] = 11.9 + random.nextGaussian() * 0.05;
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        KmlWriter writer = new KmlWriter(outputStream);
+        for (int i = 0; i < NUM_OF_FRAGMENTS; i++) {
+            outputStream.reset();
+            writer.setDepth(3);
+            writer.start("Placemark")
+                    .element("name", String.format("IMG_%05d.jpg", i))
+                    .element("open", true)
+                    .element("description", String.format("<h2>IMG_%05d.jpg</h2><p><img src=\"file:///photos/IMG_%05d.jpg\" width=\"1000\" height=\"750\"></p>", i, i))
+                    .element("styleUrl", "#s0")
+                    .start("Point")
+                    .start("coordinates")
+                    .coordinate(mLons[i], mLats[i], 0)
+                    .end()
+                    .end()
+                    .end();
+            writer.flush();
+            mFragments[i] = outputStream.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public int writePlacemarks() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            for (int i = 0; i < size; i++) {
+                placemarkSpool.add(mFragments[i % NUM_OF_FRAGMENTS], mLats[i], mLons[i], 0, i * 60000L);
+            }
+
+            KmlWriter writer = new KmlWriter(NullOutputStream.NULL_OUTPUT_STREAM);
+            for (int i = 0; i < placemarkSpool.size(); i++) {
+                placemarkSpool.copyTo(i, writer);
+            }
+            writer.flush();
+
+            return placemarkSpool.size();
+        }
+    }
+}
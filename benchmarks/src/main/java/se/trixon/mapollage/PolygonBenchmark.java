@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computing the polygon of a folder from the positions of its photos.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+public class PolygonBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private double[] mLats;
+    private double[] mLons;
+
+    @Benchmark
+    public double[][] concaveHull() {
+        ConcaveHull hull = new ConcaveHull();
+        for (int i = 0; i < size; i++) {
+            hull.add(mLons[i], mLats[i]);
+        }
+
+        return hull.getRing(1000);
+    }
+
+    @Benchmark
+    public double[][] convexHull() {
+        ConvexHull hull = new ConvexHull();
+        for (int i = 0; i < size; i++) {
+            hull.add(mLons[i], mLats[i]);
+        }
+
+        return hull.getRing();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLats = new double[size];
+        mLons = new double[size];
+
+        for (int i = 0; i < size; i++) {
+            mLats[i] = 57.6 + random.nextGaussian() * 0.05 + (i % 3) * 0.2;
+            mLons[i] = 11.9 + random.nextGaussian() * 0.05;
+        }
+    }
+}
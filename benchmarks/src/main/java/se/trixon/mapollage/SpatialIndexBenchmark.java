@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the spatial index of the placemarks and querying it by radius, as
+ * collapsing placemarks does once per placemark. The photos are spread over
+ * a hundred places.
+ *
+ * @author Patrik Karlström
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+public class SpatialIndexBenchmark {
+
+    private static final byte[] PLACEMARK = new byte[0];
+
+    @Param({"10", "1000"})
+    public double radius;
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private int mCount;
+    private final IntConsumer mCounter = index -> mCount++;
+    private int mIndex;
+    private PlacemarkSpool mPlacemarkSpool;
+    private SpatialIndex mSpatialIndex;
+
+    @Benchmark
+    public SpatialIndex build() {
+        return new SpatialIndex(mPlacemarkSpool, radius);
+    }
+
+    @Benchmark
+    public int query() {
+        mIndex = (mIndex + 1) % size;
+        mCount = 0;
+        mSpatialIndex.query(mPlacemarkSpool.getLat(mIndex), mPlacemarkSpool.getLon(mIndex), radius, mCounter);
+
+        return mCount;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        mPlacemarkSpool = new PlacemarkSpool();
+        for (int i = 0; i < size; i++) {
+            double lat = 55 + (i % 10) + random.nextGaussian() * 0.05;
+            double lon = 11 + (i / 10 % 10) + random.nextGaussian() * 0.05;
+            mPlacemarkSpool.add(PLACEMARK, lat, lon, 0, i * 60000L);
+        }
+
+        mSpatialIndex = new SpatialIndex(mPlacemarkSpool, radius);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mPlacemarkSpool.close();
+    }
+}
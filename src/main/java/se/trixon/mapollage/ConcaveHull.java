@@ -0,0 +1,236 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Arrays;
+
+/**
+ * Concave hull of longitude/latitude points, a characteristic shape.
+ * <p>
+ * The points are projected to meters around their middle latitude and
+ * triangulated. Starting from the convex hull, the longest boundary edge is
+ * then removed together with its triangle, as long as it is longer than the
+ * given length and the triangle does not touch the boundary with its third
+ * point. The result is a single simple polygon that contains every point,
+ * in O(n log n).
+ *
+ * @author Patrik Karlström
+ */
+class ConcaveHull {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+    private static final double MIN_AREA_RATIO = 1e-12;
+
+    private int mSize;
+    private double[] mXs = new double[16];
+    private double[] mYs = new double[16];
+
+    void add(double lon, double lat) {
+        if (mSize == mXs.length) {
+            mXs = Arrays.copyOf(mXs, mSize * 2);
+            mYs = Arrays.copyOf(mYs, mSize * 2);
+        }
+
+        mXs[mSize] = lon;
+        mYs[mSize] = lat;
+        mSize++;
+    }
+
+    /**
+     * @param maxEdgeLength in meters, edges longer than this are cut in to
+     * where possible
+     * @return the longitudes and latitudes of the vertices in counter
+     * clockwise order, the first vertex is repeated last to close the ring,
+     * or null if the points do not enclose an area
+     */
+    double[][] getRing(double maxEdgeLength) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < mSize; i++) {
+            minLat = Math.min(minLat, mYs[i]);
+            maxLat = Math.max(maxLat, mYs[i]);
+        }
+
+        double kx = METERS_PER_DEGREE * Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        double[] xs = new double[mSize];
+        double[] ys = new double[mSize];
+        for (int i = 0; i < mSize; i++) {
+            xs[i] = mXs[i] * kx;
+            ys[i] = mYs[i] * METERS_PER_DEGREE;
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, mSize);
+        int[] hull = triangulation.getHull();
+        if (hull.length < 3) {
+            return null;
+        }
+
+        int[] triangles = triangulation.getTriangles();
+        int[] halfedges = triangulation.getHalfedges();
+        boolean[] boundary = new boolean[mSize];
+        int[] outgoing = new int[mSize];
+        EdgeQueue queue = new EdgeQueue(hull.length);
+
+        for (int e = 0; e < triangulation.getLength(); e++) {
+            if (halfedges[e] == -1) {
+                boundary[triangles[e]] = true;
+                outgoing[triangles[e]] = e;
+                queue.add(e, getLength(xs, ys, triangles, e));
+            }
+        }
+
+        double maxLength = maxEdgeLength * maxEdgeLength;
+        while (queue.size() > 0 && queue.peekLength() > maxLength) {
+            int e = queue.poll();
+            int next = e % 3 == 2 ? e - 2 : e + 1;
+            int prev = e % 3 == 0 ? e + 2 : e - 1;
+            int c = triangles[prev];
+
+            if (!boundary[c]) {
+                int toNext = halfedges[next];
+                int toPrev = halfedges[prev];
+                halfedges[toNext] = -1;
+                halfedges[toPrev] = -1;
+                boundary[c] = true;
+                outgoing[triangles[toNext]] = toNext;
+                outgoing[triangles[toPrev]] = toPrev;
+                queue.add(toNext, getLength(xs, ys, triangles, toNext));
+                queue.add(toPrev, getLength(xs, ys, triangles, toPrev));
+            }
+        }
+
+        int count = 0;
+        int[] vertices = new int[mSize + 1];
+        int v = hull[0];
+        do {
+            vertices[count++] = v;
+            int e = outgoing[v];
+            v = triangles[e % 3 == 2 ? e - 2 : e + 1];
+        } while (v != hull[0]);
+        vertices[count] = v;
+
+        //Relative to the first vertex, in meters
+        double area = 0;
+        double perimeter = 0;
+        double x0 = xs[vertices[0]];
+        double y0 = ys[vertices[0]];
+        for (int i = 0; i < count; i++) {
+            double ax = xs[vertices[i]] - x0;
+            double ay = ys[vertices[i]] - y0;
+            double bx = xs[vertices[i + 1]] - x0;
+            double by = ys[vertices[i + 1]] - y0;
+            area += ax * by - bx * ay;
+            perimeter += Math.hypot(bx - ax, by - ay);
+        }
+
+        //Collinear points triangulate into slivers once projected and rounded
+        if (Math.abs(area) <= perimeter * perimeter * MIN_AREA_RATIO) {
+            return null;
+        }
+
+        double[] lons = new double[count + 1];
+        double[] lats = new double[count + 1];
+        for (int i = 0; i <= count; i++) {
+            int vertex = vertices[area < 0 ? count - i : i];
+            lons[i] = mXs[vertex];
+            lats[i] = mYs[vertex];
+        }
+
+        return new double[][]{lons, lats};
+    }
+
+    /**
+     * @return the squared length of the half edge
+     */
+    private double getLength(double[] xs, double[] ys, int[] triangles, int e) {
+        int a = triangles[e];
+        int b = triangles[e % 3 == 2 ? e - 2 : e + 1];
+        double dx = xs[a] - xs[b];
+        double dy = ys[a] - ys[b];
+
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * A binary max heap of half edges by their length.
+     */
+    private static class EdgeQueue {
+
+        private int[] mEdges;
+        private double[] mLengths;
+        private int mSize;
+
+        EdgeQueue(int capacity) {
+            mEdges = new int[capacity];
+            mLengths = new double[capacity];
+        }
+
+        void add(int edge, double length) {
+            if (mSize == mEdges.length) {
+                mEdges = Arrays.copyOf(mEdges, mSize * 2);
+                mLengths = Arrays.copyOf(mLengths, mSize * 2);
+            }
+
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mLengths[parent] >= length) {
+                    break;
+                }
+                mEdges[i] = mEdges[parent];
+                mLengths[i] = mLengths[parent];
+                i = parent;
+            }
+            mEdges[i] = edge;
+            mLengths[i] = length;
+        }
+
+        double peekLength() {
+            return mLengths[0];
+        }
+
+        int poll() {
+            int edge = mEdges[0];
+            int last = mEdges[--mSize];
+            double length = mLengths[mSize];
+            int i = 0;
+
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && mLengths[child + 1] > mLengths[child]) {
+                    child++;
+                }
+                if (mLengths[child] <= length) {
+                    break;
+                }
+                mEdges[i] = mEdges[child];
+                mLengths[i] = mLengths[child];
+                i = child;
+            }
+            mEdges[i] = last;
+            mLengths[i] = length;
+
+            return edge;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+}
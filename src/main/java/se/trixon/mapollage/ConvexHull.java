@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Arrays;
+
+/**
+ * Incremental convex hull of points in primitive arrays.
+ * <p>
+ * The first part of the arrays holds the vertices of the current hull and
+ * the rest the points added since. Once {@link #BUFFER_SIZE} points are
+ * pending they are merged with the hull, using Andrew's monotone chain, so
+ * only the hull vertices are kept between merges. The hull of a parent can
+ * therefore be built from the hulls of its children instead of from all
+ * their points.
+ *
+ * @author Patrik Karlström
+ */
+class ConvexHull {
+
+    private static final int BUFFER_SIZE = 256;
+
+    private int mHullSize;
+    private int mSize;
+    private double[] mXs = new double[16];
+    private double[] mYs = new double[16];
+
+    void add(double x, double y) {
+        if (mSize == mXs.length) {
+            if (mSize - mHullSize >= BUFFER_SIZE) {
+                merge();
+            }
+
+            if (mSize == mXs.length) {
+                mXs = Arrays.copyOf(mXs, mSize * 2);
+                mYs = Arrays.copyOf(mYs, mSize * 2);
+            }
+        }
+
+        mXs[mSize] = x;
+        mYs[mSize] = y;
+        mSize++;
+    }
+
+    /**
+     * Adds the vertices of another hull.
+     */
+    void add(ConvexHull hull) {
+        hull.merge();
+        for (int i = 0; i < hull.mSize; i++) {
+            add(hull.mXs[i], hull.mYs[i]);
+        }
+    }
+
+    /**
+     * @return the x and y values of the vertices in counter clockwise order,
+     * the first vertex is repeated last to close the ring
+     */
+    double[][] getRing() {
+        merge();
+        double[] xs = Arrays.copyOf(mXs, mSize + 1);
+        double[] ys = Arrays.copyOf(mYs, mSize + 1);
+        xs[mSize] = mXs[0];
+        ys[mSize] = mYs[0];
+
+        return new double[][]{xs, ys};
+    }
+
+    /**
+     * @return true if the hull encloses an area, that is when at least three
+     * of the points are not collinear
+     */
+    boolean isPolygon() {
+        merge();
+
+        return mSize >= 3;
+    }
+
+    private double cross(double[] xs, double[] ys, int o, int a, double bx, double by) {
+        return (xs[a] - xs[o]) * (by - ys[o]) - (ys[a] - ys[o]) * (bx - xs[o]);
+    }
+
+    private void merge() {
+        if (mSize == mHullSize) {
+            return;
+        }
+
+        sort(0, mSize - 1);
+
+        int n = 1;
+        for (int i = 1; i < mSize; i++) {
+            if (mXs[i] != mXs[n - 1] || mYs[i] != mYs[n - 1]) {
+                mXs[n] = mXs[i];
+                mYs[n] = mYs[i];
+                n++;
+            }
+        }
+
+        if (n < 3) {
+            mSize = mHullSize = n;
+            return;
+        }
+
+        double[] xs = new double[2 * n];
+        double[] ys = new double[2 * n];
+        int k = 0;
+
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(xs, ys, k - 2, k - 1, mXs[i], mYs[i]) <= 0) {
+                k--;
+            }
+            xs[k] = mXs[i];
+            ys[k++] = mYs[i];
+        }
+
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(xs, ys, k - 2, k - 1, mXs[i], mYs[i]) <= 0) {
+                k--;
+            }
+            xs[k] = mXs[i];
+            ys[k++] = mYs[i];
+        }
+
+        k--;
+        System.arraycopy(xs, 0, mXs, 0, k);
+        System.arraycopy(ys, 0, mYs, 0, k);
+        mSize = mHullSize = k;
+    }
+
+    /**
+     * Sorts the points by x and then y.
+     */
+    private void sort(int low, int high) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            double pivotX = mXs[mid];
+            double pivotY = mYs[mid];
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (mXs[i] < pivotX || mXs[i] == pivotX && mYs[i] < pivotY) {
+                    i++;
+                }
+                while (mXs[j] > pivotX || mXs[j] == pivotX && mYs[j] > pivotY) {
+                    j--;
+                }
+                if (i <= j) {
+                    double x = mXs[i];
+                    double y = mYs[i];
+                    mXs[i] = mXs[j];
+                    mYs[i] = mYs[j];
+                    mXs[j] = x;
+                    mYs[j] = y;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe formatting of epoch milliseconds in the default time zone.
+ * <p>
+ * Patterns use the {@link java.text.SimpleDateFormat} syntax of the profiles
+ * and are translated to a {@link DateTimeFormatter} once. The text of a
+ * pattern without time of day or zone fields only changes with the day, so
+ * it is formatted once per day and cached.
+ *
+ * @author Patrik Karlström
+ */
+public class DateFormatter {
+
+    private static final String PATTERN_LETTERS = "GyMdkHmsSEDFwWahKzZYuXL";
+    private static final String TIME_LETTERS = "kHmsSahKzZX";
+
+    private final ConcurrentHashMap<Long, String> mDays;
+    private final DateTimeFormatter mFormatter;
+    private final ZoneId mZoneId = ZoneId.systemDefault();
+
+    /**
+     * @param pattern in the syntax of {@link java.text.SimpleDateFormat}
+     * @param locale
+     * @return a formatter of the pattern
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static DateFormatter ofPattern(String pattern, Locale locale) {
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+        boolean dateOnly = true;
+        int i = 0;
+
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                i = appendQuoted(builder, pattern, i);
+                continue;
+            }
+
+            if (!isLetter(c)) {
+                //Literals are appended as such, DateTimeFormatter reserves some of them
+                int end = i + 1;
+                while (end < pattern.length() && pattern.charAt(end) != '\'' && !isLetter(pattern.charAt(end))) {
+                    end++;
+                }
+                builder.appendLiteral(pattern.substring(i, end));
+                i = end;
+                continue;
+            }
+
+            if (PATTERN_LETTERS.indexOf(c) < 0) {
+                throw new IllegalArgumentException(String.format("Illegal pattern character '%c'", c));
+            }
+
+            int count = 1;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                count++;
+            }
+            dateOnly &= TIME_LETTERS.indexOf(c) < 0;
+
+            //The letters that mean something else to DateTimeFormatter
+            ChronoField field = null;
+            if (c == 'F') {
+                field = ChronoField.ALIGNED_WEEK_OF_MONTH;
+            } else if (c == 'S') {
+                field = ChronoField.MILLI_OF_SECOND;
+            } else if (c == 'u') {
+                field = ChronoField.DAY_OF_WEEK;
+            }
+
+            if (field == null) {
+                builder.appendPattern(pattern.substring(i, i + count));
+            } else {
+                builder.appendValue(field, Math.min(count, 19), 19, SignStyle.NOT_NEGATIVE);
+            }
+            i += count;
+        }
+
+        return new DateFormatter(builder.toFormatter(locale), dateOnly);
+    }
+
+    /**
+     * Appends the quoted text starting at the index, or a quote if it is
+     * doubled.
+     *
+     * @return the index after the closing quote
+     */
+    private static int appendQuoted(DateTimeFormatterBuilder builder, String pattern, int start) {
+        StringBuilder literal = new StringBuilder();
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '\'') {
+            builder.appendLiteral('\'');
+            return i + 1;
+        }
+
+        while (true) {
+            if (i >= pattern.length()) {
+                throw new IllegalArgumentException("Unterminated quote");
+            }
+
+            char c = pattern.charAt(i++);
+            if (c == '\'') {
+                if (i < pattern.length() && pattern.charAt(i) == '\'') {
+                    literal.append(c);
+                    i++;
+                } else {
+                    break;
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+
+        builder.appendLiteral(literal.toString());
+
+        return i;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+    }
+
+    /**
+     * @param formatter
+     * @param dateOnly true if the formatter has no time of day or zone fields
+     */
+    DateFormatter(DateTimeFormatter formatter, boolean dateOnly) {
+        mFormatter = formatter;
+        mDays = dateOnly ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * @param time in milliseconds since the epoch
+     * @return the formatted time
+     * @throws java.time.DateTimeException if the time can not be formatted
+     */
+    public String format(long time) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(mZoneId);
+        if (mDays == null) {
+            return mFormatter.format(dateTime);
+        }
+
+        return mDays.computeIfAbsent(dateTime.toLocalDate().toEpochDay(), day -> mFormatter.format(dateTime));
+    }
+}
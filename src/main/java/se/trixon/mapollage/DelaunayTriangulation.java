@@ -0,0 +1,486 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of points in primitive arrays.
+ * <p>
+ * A sweep-hull algorithm, after Delaunator: the points are sorted by their
+ * distance to a seed triangle and added one by one to the outside of a
+ * convex hull, whose edges are found with an angular hash, followed by edge
+ * flips until the triangulation is Delaunay again. This is O(n log n) in
+ * practice.
+ * <p>
+ * Triangle {@code t} consists of the half edges {@code 3t}, {@code 3t + 1}
+ * and {@code 3t + 2}, counter clockwise in a y down system, and half edge
+ * {@code e} starts at point {@code getTriangles()[e]}. The opposite half
+ * edge is {@code getHalfedges()[e]}, or -1 on the convex hull. Near
+ * duplicate points are left out.
+ *
+ * @author Patrik Karlström
+ */
+class DelaunayTriangulation {
+
+    private static final double EPSILON = Math.ulp(1.0);
+
+    private double mCenterX;
+    private double mCenterY;
+    private final int[] mEdgeStack = new int[512];
+    private final int[] mHalfedges;
+    private final int mHashSize;
+    private int[] mHull = new int[0];
+    private final int[] mHullHash;
+    private final int[] mHullNext;
+    private final int[] mHullPrev;
+    private int mHullStart;
+    private final int[] mHullTri;
+    private int mLength;
+    private final int[] mTriangles;
+    private final double[] mXs;
+    private final double[] mYs;
+
+    DelaunayTriangulation(double[] xs, double[] ys, int size) {
+        mXs = xs;
+        mYs = ys;
+        int maxTriangles = Math.max(2 * size - 5, 0);
+        mTriangles = new int[maxTriangles * 3];
+        mHalfedges = new int[maxTriangles * 3];
+        mHashSize = (int) Math.ceil(Math.sqrt(size));
+        mHullPrev = new int[size];
+        mHullNext = new int[size];
+        mHullTri = new int[size];
+        mHullHash = new int[mHashSize];
+        Arrays.fill(mHullHash, -1);
+
+        if (size >= 3) {
+            triangulate(size);
+        }
+    }
+
+    /**
+     * @return the opposite half edges, -1 on the hull, valid up to
+     * {@link #getLength()}
+     */
+    int[] getHalfedges() {
+        return mHalfedges;
+    }
+
+    /**
+     * @return the points of the convex hull, empty if all points are
+     * collinear
+     */
+    int[] getHull() {
+        return mHull;
+    }
+
+    /**
+     * @return the number of half edges
+     */
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return the start points of the half edges, valid up to
+     * {@link #getLength()}
+     */
+    int[] getTriangles() {
+        return mTriangles;
+    }
+
+    private static double getCircumradius(double ax, double ay, double bx, double by, double cx, double cy) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double ex = cx - ax;
+        double ey = cy - ay;
+        double bl = dx * dx + dy * dy;
+        double cl = ex * ex + ey * ey;
+        double d = 0.5 / (dx * ey - dy * ex);
+        double x = (ey * bl - dy * cl) * d;
+        double y = (dx * cl - ex * bl) * d;
+
+        return x * x + y * y;
+    }
+
+    private static double getDistance(double ax, double ay, double bx, double by) {
+        double dx = ax - bx;
+        double dy = ay - by;
+
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return a value that increases monotonically with the angle, in [0, 1]
+     */
+    private static double getPseudoAngle(double dx, double dy) {
+        double p = dx / (Math.abs(dx) + Math.abs(dy));
+
+        return (dy > 0 ? 3 - p : 1 + p) / 4;
+    }
+
+    private static boolean isInCircle(double ax, double ay, double bx, double by, double cx, double cy, double px, double py) {
+        double dx = ax - px;
+        double dy = ay - py;
+        double ex = bx - px;
+        double ey = by - py;
+        double fx = cx - px;
+        double fy = cy - py;
+        double ap = dx * dx + dy * dy;
+        double bp = ex * ex + ey * ey;
+        double cp = fx * fx + fy * fy;
+
+        return dx * (ey * cp - bp * fy) - dy * (ex * cp - bp * fx) + ap * (ex * fy - ey * fx) < 0;
+    }
+
+    private static boolean orient(double px, double py, double qx, double qy, double rx, double ry) {
+        return (qy - py) * (rx - qx) - (qx - px) * (ry - qy) < 0;
+    }
+
+    /**
+     * Sorts the ids by their distances.
+     */
+    private static void sort(int[] ids, double[] dists, int left, int right) {
+        if (right - left <= 20) {
+            for (int i = left + 1; i <= right; i++) {
+                int id = ids[i];
+                double dist = dists[id];
+                int j = i - 1;
+                while (j >= left && dists[ids[j]] > dist) {
+                    ids[j + 1] = ids[j--];
+                }
+                ids[j + 1] = id;
+            }
+
+            return;
+        }
+
+        int median = (left + right) >>> 1;
+        int i = left + 1;
+        int j = right;
+        swap(ids, median, i);
+        if (dists[ids[left]] > dists[ids[right]]) {
+            swap(ids, left, right);
+        }
+        if (dists[ids[i]] > dists[ids[right]]) {
+            swap(ids, i, right);
+        }
+        if (dists[ids[left]] > dists[ids[i]]) {
+            swap(ids, left, i);
+        }
+
+        int id = ids[i];
+        double dist = dists[id];
+        while (true) {
+            do {
+                i++;
+            } while (dists[ids[i]] < dist);
+            do {
+                j--;
+            } while (dists[ids[j]] > dist);
+            if (j < i) {
+                break;
+            }
+            swap(ids, i, j);
+        }
+        ids[left + 1] = ids[j];
+        ids[j] = id;
+
+        if (right - i + 1 >= j - left) {
+            sort(ids, dists, i, right);
+            sort(ids, dists, left, j - 1);
+        } else {
+            sort(ids, dists, left, j - 1);
+            sort(ids, dists, i, right);
+        }
+    }
+
+    private static void swap(int[] ids, int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+        int t = mLength;
+        mTriangles[t] = i0;
+        mTriangles[t + 1] = i1;
+        mTriangles[t + 2] = i2;
+        link(t, a);
+        link(t + 1, b);
+        link(t + 2, c);
+        mLength += 3;
+
+        return t;
+    }
+
+    private int getHashKey(double x, double y) {
+        return (int) Math.floor(getPseudoAngle(x - mCenterX, y - mCenterY) * mHashSize) % mHashSize;
+    }
+
+    /**
+     * Flips edges until the triangles around the half edge are Delaunay.
+     *
+     * @return the last half edge visited
+     */
+    private int legalize(int a) {
+        int i = 0;
+        int ar;
+
+        while (true) {
+            int b = mHalfedges[a];
+            int a0 = a - a % 3;
+            ar = a0 + (a + 2) % 3;
+
+            if (b == -1) {
+                if (i == 0) {
+                    break;
+                }
+                a = mEdgeStack[--i];
+                continue;
+            }
+
+            int b0 = b - b % 3;
+            int al = a0 + (a + 1) % 3;
+            int bl = b0 + (b + 2) % 3;
+            int p0 = mTriangles[ar];
+            int pr = mTriangles[a];
+            int pl = mTriangles[al];
+            int p1 = mTriangles[bl];
+
+            if (isInCircle(mXs[p0], mYs[p0], mXs[pr], mYs[pr], mXs[pl], mYs[pl], mXs[p1], mYs[p1])) {
+                mTriangles[a] = p1;
+                mTriangles[b] = p0;
+                int hbl = mHalfedges[bl];
+
+                if (hbl == -1) {
+                    int e = mHullStart;
+                    do {
+                        if (mHullTri[e] == bl) {
+                            mHullTri[e] = a;
+                            break;
+                        }
+                        e = mHullPrev[e];
+                    } while (e != mHullStart);
+                }
+
+                link(a, hbl);
+                link(b, mHalfedges[ar]);
+                link(ar, bl);
+
+                if (i < mEdgeStack.length) {
+                    mEdgeStack[i++] = b0 + (b + 1) % 3;
+                }
+            } else {
+                if (i == 0) {
+                    break;
+                }
+                a = mEdgeStack[--i];
+            }
+        }
+
+        return ar;
+    }
+
+    private void link(int a, int b) {
+        mHalfedges[a] = b;
+        if (b != -1) {
+            mHalfedges[b] = a;
+        }
+    }
+
+    private void triangulate(int size) {
+        int[] ids = new int[size];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, mXs[i]);
+            minY = Math.min(minY, mYs[i]);
+            maxX = Math.max(maxX, mXs[i]);
+            maxY = Math.max(maxY, mYs[i]);
+            ids[i] = i;
+        }
+
+        double cx = (minX + maxX) / 2;
+        double cy = (minY + maxY) / 2;
+        double minDist = Double.POSITIVE_INFINITY;
+        int i0 = 0;
+        for (int i = 0; i < size; i++) {
+            double d = getDistance(cx, cy, mXs[i], mYs[i]);
+            if (d < minDist) {
+                i0 = i;
+                minDist = d;
+            }
+        }
+
+        minDist = Double.POSITIVE_INFINITY;
+        int i1 = -1;
+        for (int i = 0; i < size; i++) {
+            double d = getDistance(mXs[i0], mYs[i0], mXs[i], mYs[i]);
+            if (i != i0 && d < minDist && d > 0) {
+                i1 = i;
+                minDist = d;
+            }
+        }
+
+        if (i1 == -1) {
+            return;
+        }
+
+        double minRadius = Double.POSITIVE_INFINITY;
+        int i2 = -1;
+        for (int i = 0; i < size; i++) {
+            if (i != i0 && i != i1) {
+                double r = getCircumradius(mXs[i0], mYs[i0], mXs[i1], mYs[i1], mXs[i], mYs[i]);
+                if (r < minRadius) {
+                    i2 = i;
+                    minRadius = r;
+                }
+            }
+        }
+
+        if (i2 == -1) {
+            return;
+        }
+
+        if (orient(mXs[i0], mYs[i0], mXs[i1], mYs[i1], mXs[i2], mYs[i2])) {
+            int i = i1;
+            i1 = i2;
+            i2 = i;
+        }
+
+        double dx = mXs[i1] - mXs[i0];
+        double dy = mYs[i1] - mYs[i0];
+        double ex = mXs[i2] - mXs[i0];
+        double ey = mYs[i2] - mYs[i0];
+        double bl = dx * dx + dy * dy;
+        double cl = ex * ex + ey * ey;
+        double d = 0.5 / (dx * ey - dy * ex);
+        mCenterX = mXs[i0] + (ey * bl - dy * cl) * d;
+        mCenterY = mYs[i0] + (dx * cl - ex * bl) * d;
+
+        double[] dists = new double[size];
+        for (int i = 0; i < size; i++) {
+            dists[i] = getDistance(mXs[i], mYs[i], mCenterX, mCenterY);
+        }
+        sort(ids, dists, 0, size - 1);
+
+        mHullStart = i0;
+        int hullSize = 3;
+        mHullNext[i0] = mHullPrev[i2] = i1;
+        mHullNext[i1] = mHullPrev[i0] = i2;
+        mHullNext[i2] = mHullPrev[i1] = i0;
+        mHullTri[i0] = 0;
+        mHullTri[i1] = 1;
+        mHullTri[i2] = 2;
+        mHullHash[getHashKey(mXs[i0], mYs[i0])] = i0;
+        mHullHash[getHashKey(mXs[i1], mYs[i1])] = i1;
+        mHullHash[getHashKey(mXs[i2], mYs[i2])] = i2;
+        addTriangle(i0, i1, i2, -1, -1, -1);
+
+        double xp = 0;
+        double yp = 0;
+        for (int k = 0; k < size; k++) {
+            int i = ids[k];
+            double x = mXs[i];
+            double y = mYs[i];
+
+            if (k > 0 && Math.abs(x - xp) <= EPSILON && Math.abs(y - yp) <= EPSILON) {
+                continue;
+            }
+            xp = x;
+            yp = y;
+
+            if (i == i0 || i == i1 || i == i2) {
+                continue;
+            }
+
+            int start = 0;
+            for (int j = 0, key = getHashKey(x, y); j < mHashSize; j++) {
+                start = mHullHash[(key + j) % mHashSize];
+                if (start != -1 && start != mHullNext[start]) {
+                    break;
+                }
+            }
+
+            start = mHullPrev[start];
+            int e = start;
+            while (true) {
+                int q = mHullNext[e];
+                if (orient(x, y, mXs[e], mYs[e], mXs[q], mYs[q])) {
+                    break;
+                }
+                e = q;
+                if (e == start) {
+                    e = -1;
+                    break;
+                }
+            }
+
+            if (e == -1) {
+                continue;
+            }
+
+            int t = addTriangle(e, i, mHullNext[e], -1, -1, mHullTri[e]);
+            mHullTri[i] = legalize(t + 2);
+            mHullTri[e] = t;
+            hullSize++;
+
+            int n = mHullNext[e];
+            while (true) {
+                int q = mHullNext[n];
+                if (!orient(x, y, mXs[n], mYs[n], mXs[q], mYs[q])) {
+                    break;
+                }
+                t = addTriangle(n, i, q, mHullTri[i], -1, mHullTri[n]);
+                mHullTri[i] = legalize(t + 2);
+                mHullNext[n] = n;
+                hullSize--;
+                n = q;
+            }
+
+            if (e == start) {
+                while (true) {
+                    int q = mHullPrev[e];
+                    if (!orient(x, y, mXs[q], mYs[q], mXs[e], mYs[e])) {
+                        break;
+                    }
+                    t = addTriangle(q, i, e, -1, mHullTri[e], mHullTri[q]);
+                    legalize(t + 2);
+                    mHullTri[q] = t;
+                    mHullNext[e] = e;
+                    hullSize--;
+                    e = q;
+                }
+            }
+
+            mHullStart = mHullPrev[i] = e;
+            mHullNext[e] = mHullPrev[n] = i;
+            mHullNext[i] = n;
+            mHullHash[getHashKey(x, y)] = i;
+            mHullHash[getHashKey(mXs[e], mYs[e])] = e;
+        }
+
+        mHull = new int[hullSize];
+        for (int i = 0, e = mHullStart; i < hullSize; i++) {
+            mHull[i] = e;
+            e = mHullNext[e];
+        }
+    }
+}
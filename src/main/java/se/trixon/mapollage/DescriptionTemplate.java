@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import se.trixon.mapollage.profile.ProfileDescription.DescriptionSegment;
+
+/**
+ * A description with its segment variables located once.
+ * <p>
+ * The text is split at every variable when the template is created, a
+ * placemark is then rendered in a single pass and only the variables that
+ * occur are computed.
+ *
+ * @author Patrik Karlström
+ */
+class DescriptionTemplate {
+
+    private static final DescriptionSegment[] SEGMENTS = DescriptionSegment.values();
+    private static final String[] TOKENS = new String[SEGMENTS.length];
+
+    static {
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            TOKENS[i] = SEGMENTS[i].toString();
+        }
+    }
+
+    private final DescriptionSegment[] mSegments;
+    private final String[] mTexts;
+
+    DescriptionTemplate(String template) {
+        ArrayList<String> texts = new ArrayList<>();
+        ArrayList<DescriptionSegment> segments = new ArrayList<>();
+        int start = 0;
+        int i = template.indexOf('+');
+
+        while (i >= 0) {
+            int segment = getSegment(template, i);
+            if (segment < 0) {
+                i = template.indexOf('+', i + 1);
+            } else {
+                texts.add(template.substring(start, i));
+                segments.add(SEGMENTS[segment]);
+                start = i + TOKENS[segment].length();
+                i = template.indexOf('+', start);
+            }
+        }
+
+        texts.add(template.substring(start));
+        mTexts = texts.toArray(new String[texts.size()]);
+        mSegments = segments.toArray(new DescriptionSegment[segments.size()]);
+    }
+
+    /**
+     * @param builder reused between calls, cleared before rendering
+     * @param segmentWriter appends the value of every segment that occurs
+     * @return the rendered description
+     * @throws IOException if the segment writer fails
+     */
+    String render(StringBuilder builder, SegmentWriter segmentWriter) throws IOException {
+        if (mSegments.length == 0) {
+            return mTexts[0];
+        }
+
+        builder.setLength(0);
+        for (int i = 0; i < mSegments.length; i++) {
+            builder.append(mTexts[i]);
+            segmentWriter.write(builder, mSegments[i]);
+        }
+        builder.append(mTexts[mSegments.length]);
+
+        return builder.toString();
+    }
+
+    private int getSegment(String template, int offset) {
+        for (int i = 0; i < TOKENS.length; i++) {
+            if (template.startsWith(TOKENS[i], offset)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    interface SegmentWriter {
+
+        void write(StringBuilder builder, DescriptionSegment segment) throws IOException;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import org.apache.commons.io.IOCase;
+import org.apache.commons.lang3.StringUtils;
+import se.trixon.mapollage.profile.ProfileDescription.DescriptionMode;
+import se.trixon.mapollage.profile.ProfileSource;
+
+/**
+ * Fork/join directory walker.
+ * <p>
+ * Every directory is listed once with a {@link DirectoryStream} and the
+ * attributes of an entry are read at most once (twice for symbolic links).
+ * Sub directories are forked as separate tasks and picked up by idle workers.
+ * <p>
+ * The files are either collected into one list or passed on one directory at
+ * a time, sorted by name, to a consumer while the scan is still running.
+ *
+ * @author Patrik Karlström
+ */
+class DirectoryScanner {
+
+    private final CancellationToken mCancellationToken;
+    private Consumer<File> mConsumer;
+    private final Properties mDefaultDescProperties = new Properties();
+    private final Map<String, Properties> mDirToDesc;
+    private final ConcurrentLinkedQueue<String> mErrors = new ConcurrentLinkedQueue<>();
+    private final String[] mExcludePatterns;
+    private final String mExternalFileValue;
+    private final boolean mFollowLinks;
+    private final OperationListener mOperationListener;
+    private final PathMatcher mPathMatcher;
+    private final boolean mRecursive;
+    private final File mStartDir;
+    private final boolean mUseExternalDescription;
+
+    DirectoryScanner(PathMatcher pathMatcher, File startDir, Operation operation) {
+        ProfileSource profileSource = operation.getProfileSource();
+        mCancellationToken = operation.getCancellationToken();
+        mPathMatcher = pathMatcher;
+        mStartDir = startDir;
+        mOperationListener = operation.getListener();
+        mExcludePatterns = StringUtils.split(operation.getExcludePattern(), "::");
+        mDirToDesc = operation.getDirToDesc();
+        mFollowLinks = profileSource.isFollowLinks();
+        mRecursive = profileSource.isRecursive();
+
+        mUseExternalDescription = operation.getProfileDescription().getMode() == DescriptionMode.EXTERNAL;
+        mExternalFileValue = operation.getProfileDescription().getExternalFileValue();
+        if (mUseExternalDescription) {
+            loadProperties(mDefaultDescProperties, new File(startDir, mExternalFileValue));
+        }
+    }
+
+    /**
+     * @return the messages of directories that could not be read
+     */
+    List<String> getErrors() {
+        return new ArrayList<>(mErrors);
+    }
+
+    /**
+     * Scans the start directory.
+     *
+     * @param parallelism
+     * @return the matching files, unordered and incomplete if the operation
+     * was cancelled, empty if they were passed to a consumer
+     * @throws IOException if the start directory can not be read
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    List<File> scan(int parallelism) throws IOException, InterruptedException {
+        Path startPath = mStartDir.toPath();
+        Ancestor ancestor = null;
+        if (mFollowLinks) {
+            ancestor = new Ancestor(getKey(startPath, Files.readAttributes(startPath, BasicFileAttributes.class)), null);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<List<File>> task = pool.submit(new DirectoryTask(startPath, ancestor));
+
+            return task.get();
+        } catch (InterruptedException ex) {
+            mCancellationToken.cancel();
+            throw ex;
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans the start directory and passes the matching files of each
+     * directory to the consumer, after the external description of the
+     * directory has been loaded.
+     *
+     * @param parallelism
+     * @param consumer called from the worker threads, may block to hold the
+     * scan back
+     * @throws IOException if the start directory can not be read
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    void scan(int parallelism, Consumer<File> consumer) throws IOException, InterruptedException {
+        mConsumer = consumer;
+        scan(parallelism);
+    }
+
+    private Object getKey(Path path, BasicFileAttributes attrs) throws IOException {
+        Object key = attrs.fileKey();
+
+        return key != null ? key : path.toRealPath();
+    }
+
+    private boolean isExcluded(Path dir) {
+        if (mExcludePatterns != null) {
+            for (String excludePattern : mExcludePatterns) {
+                if (IOCase.SYSTEM.isCaseSensitive()) {
+                    if (StringUtils.contains(dir.toString(), excludePattern)) {
+                        return true;
+                    }
+                } else {
+                    if (StringUtils.containsIgnoreCase(dir.toString(), excludePattern)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isExcluded(File file) {
+        if (mExcludePatterns != null) {
+            for (String excludePattern : mExcludePatterns) {
+                if (StringUtils.contains(file.getAbsolutePath(), excludePattern)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private void loadProperties(Properties properties, File file) {
+        if (file.isFile()) {
+            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(file), Charset.defaultCharset())) {
+                properties.load(reader);
+            } catch (IOException ex) {
+                // nvm
+            }
+        }
+    }
+
+    /**
+     * The chain of directories above a task, used to detect cycles when links
+     * are followed.
+     */
+    private static class Ancestor {
+
+        private final Object mKey;
+        private final Ancestor mParent;
+
+        Ancestor(Object key, Ancestor parent) {
+            mKey = key;
+            mParent = parent;
+        }
+
+        boolean contains(Object key) {
+            for (Ancestor ancestor = this; ancestor != null; ancestor = ancestor.mParent) {
+                if (ancestor.mKey.equals(key)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private class DirectoryTask extends RecursiveTask<List<File>> {
+
+        private final Ancestor mAncestor;
+        private final Path mDir;
+
+        DirectoryTask(Path dir, Ancestor ancestor) {
+            mDir = dir;
+            mAncestor = ancestor;
+        }
+
+        @Override
+        protected List<File> compute() {
+            ArrayList<File> files = new ArrayList<>();
+            if (mCancellationToken.isCancelled() || isExcluded(mDir)) {
+                return files;
+            }
+
+            ArrayList<DirectoryTask> tasks = new ArrayList<>();
+            boolean empty = true;
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(mDir)) {
+                mOperationListener.onOperationLog(mDir.toString());
+                mOperationListener.onOperationProgress(mDir.toString());
+
+                for (Path path : directoryStream) {
+                    if (mCancellationToken.isCancelled()) {
+                        return files;
+                    }
+
+                    empty = false;
+                    boolean matches = mPathMatcher.matches(path.getFileName());
+                    if (!matches && !mRecursive) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isSymbolicLink()) {
+                            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                            if (attrs.isDirectory() && !mFollowLinks) {
+                                continue;
+                            }
+                        }
+                    } catch (IOException ex) {
+                        mErrors.add(String.format("E000 %s", path.toString()));
+                        continue;
+                    }
+
+                    if (attrs.isRegularFile()) {
+                        File file = path.toFile();
+                        if (matches && !isExcluded(file)) {
+                            files.add(file);
+                        }
+                    } else if (attrs.isDirectory() && mRecursive) {
+                        Ancestor ancestor = null;
+                        if (mFollowLinks) {
+                            Object key;
+                            try {
+                                key = getKey(path, attrs);
+                            } catch (IOException ex) {
+                                mErrors.add(String.format("E000 %s", path.toString()));
+                                continue;
+                            }
+
+                            if (mAncestor.contains(key)) {
+                                mErrors.add(String.format("E000 %s", path.toString()));
+                                continue;
+                            }
+                            ancestor = new Ancestor(key, mAncestor);
+                        }
+
+                        tasks.add(new DirectoryTask(path, ancestor));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException ex) {
+                mErrors.add(String.format("E000 %s", mDir.toString()));
+            }
+
+            if (!empty && mUseExternalDescription) {
+                Properties p = new Properties(mDefaultDescProperties);
+                loadProperties(p, new File(mDir.toFile(), mExternalFileValue));
+                mDirToDesc.put(mDir.toFile().getAbsolutePath(), p);
+            }
+
+            if (mConsumer != null) {
+                Collections.sort(files);
+                for (File file : files) {
+                    if (mCancellationToken.isCancelled()) {
+                        return files;
+                    }
+                    mConsumer.accept(file);
+                }
+                files.clear();
+            }
+
+            invokeAll(tasks);
+            for (DirectoryTask task : tasks) {
+                files.addAll(task.join());
+            }
+
+            return files;
+        }
+    }
+}
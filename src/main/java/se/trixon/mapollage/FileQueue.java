@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue of the files of a running {@link DirectoryScanner}.
+ * <p>
+ * The scan runs on a thread of its own and is held back whenever the queue
+ * is full, so the files are processed as they are found and never all kept
+ * in memory.
+ *
+ * @author Patrik Karlström
+ */
+class FileQueue implements Closeable {
+
+    private static final File END = new File("");
+
+    private final AtomicInteger mCount = new AtomicInteger();
+    private boolean mEnded;
+    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<File> mQueue;
+    private Future<Void> mScan;
+
+    FileQueue(int capacity) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Waits for the scan to finish, call once {@link #take()} has returned
+     * null.
+     *
+     * @throws IOException if the start directory could not be read
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    void await() throws IOException, InterruptedException {
+        try {
+            mScan.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Stops the scan if it is still running.
+     */
+    @Override
+    public void close() {
+        if (mScan != null) {
+            mScan.cancel(true);
+        }
+        mExecutorService.shutdownNow();
+    }
+
+    /**
+     * Thread safe
+     *
+     * @return the number of files found so far
+     */
+    int getCount() {
+        return mCount.get();
+    }
+
+    void start(DirectoryScanner directoryScanner, int parallelism) {
+        mScan = mExecutorService.submit(() -> {
+            try {
+                directoryScanner.scan(parallelism, this::put);
+            } finally {
+                mQueue.put(END);
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * @return the next file, waiting for the scan to find it, or null once
+     * the scan has finished
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    File take() throws InterruptedException {
+        if (mEnded) {
+            return null;
+        }
+
+        File file = mQueue.take();
+        if (file == END) {
+            mEnded = true;
+            return null;
+        }
+
+        return file;
+    }
+
+    private void put(File file) {
+        try {
+            mCount.incrementAndGet();
+            mQueue.put(file);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A folder of the generated document.
+ * <p>
+ * Placemarks are referenced by their index in the {@link PlacemarkSpool} and
+ * every sub folder remembers how many placemarks its parent held when it was
+ * created, which preserves the original feature order without keeping any
+ * placemark objects around. The convex hull of the placemarks is maintained
+ * as they are added.
+ *
+ * @author Patrik Karlström
+ */
+class FolderNode {
+
+    private final ConvexHull mConvexHull = new ConvexHull();
+    private final int mDepth;
+    private String mDescription;
+    private final ArrayList<FolderNode> mFolders = new ArrayList<>();
+    private final String mName;
+    private boolean mOpen;
+    private int mPlacemarkCount;
+    private int[] mPlacemarks = new int[8];
+    private final int mPosition;
+
+    FolderNode(String name) {
+        this(name, 0, 0);
+    }
+
+    private FolderNode(String name, int depth, int position) {
+        mName = name;
+        mDepth = depth;
+        mPosition = position;
+    }
+
+    FolderNode addFolder(String name) {
+        FolderNode folder = new FolderNode(name, mDepth + 1, mPlacemarkCount);
+        mFolders.add(folder);
+
+        return folder;
+    }
+
+    void addPlacemark(int index) {
+        if (mPlacemarkCount == mPlacemarks.length) {
+            mPlacemarks = Arrays.copyOf(mPlacemarks, mPlacemarkCount * 2);
+        }
+
+        mPlacemarks[mPlacemarkCount++] = index;
+    }
+
+    /**
+     * @return the hull of the placemarks of this folder, and of its sub
+     * folders once they have been merged into it
+     */
+    ConvexHull getConvexHull() {
+        return mConvexHull;
+    }
+
+    /**
+     * @return the nesting level, 0 for the root folder
+     */
+    int getDepth() {
+        return mDepth;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    List<FolderNode> getFolders() {
+        return mFolders;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    int getPlacemark(int i) {
+        return mPlacemarks[i];
+    }
+
+    int getPlacemarkCount() {
+        return mPlacemarkCount;
+    }
+
+    /**
+     * @return the number of placemarks the parent held when this folder was
+     * created
+     */
+    int getPosition() {
+        return mPosition;
+    }
+
+    boolean isOpen() {
+        return mOpen;
+    }
+
+    void setDescription(String description) {
+        mDescription = description;
+    }
+
+    void setOpen(boolean open) {
+        mOpen = open;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Minimal streaming KML writer.
+ * <p>
+ * Text is collected in a small buffer and encoded to the stream whenever it
+ * grows beyond {@link #FLUSH_THRESHOLD}, so memory use does not depend on the
+ * size of the document. Elements are indented with tabs and values containing
+ * markup are written as CDATA.
+ *
+ * @author Patrik Karlström
+ */
+class KmlWriter implements Closeable {
+
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+    private static final String NAMESPACE = "http://www.opengis.net/kml/2.2";
+
+    private final StringBuilder mBuilder = new StringBuilder(FLUSH_THRESHOLD + 4096);
+    private int mCoordinateCount;
+    private int mDepth;
+    private final ArrayDeque<String> mElements = new ArrayDeque<>();
+    private final OutputStream mOutputStream;
+
+    static String formatDouble(double value) {
+        String s = Double.toString(value);
+        if (s.indexOf('E') >= 0) {
+            s = BigDecimal.valueOf(value).toPlainString();
+        }
+
+        return s;
+    }
+
+    KmlWriter(OutputStream outputStream) {
+        mOutputStream = outputStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        mOutputStream.close();
+    }
+
+    KmlWriter coordinate(double lon, double lat) throws IOException {
+        if (mCoordinateCount++ > 0) {
+            mBuilder.append(' ');
+        }
+        mBuilder.append(formatDouble(lon)).append(',').append(formatDouble(lat));
+        checkFlush();
+
+        return this;
+    }
+
+    KmlWriter coordinate(double lon, double lat, double alt) throws IOException {
+        coordinate(lon, lat);
+        mBuilder.append(',').append(formatDouble(alt));
+
+        return this;
+    }
+
+    KmlWriter element(String element, boolean value) throws IOException {
+        return element(element, value ? "1" : "0");
+    }
+
+    KmlWriter element(String element, double value) throws IOException {
+        return element(element, formatDouble(value));
+    }
+
+    KmlWriter element(String element, String value) throws IOException {
+        indent();
+        mBuilder.append('<').append(element).append('>');
+        appendText(value);
+        mBuilder.append("</").append(element).append(">\n");
+        checkFlush();
+
+        return this;
+    }
+
+    KmlWriter end() throws IOException {
+        String element = mElements.pop();
+        mDepth--;
+        if (element.equals("coordinates")) {
+            mBuilder.append("</coordinates>\n");
+        } else {
+            indent();
+            mBuilder.append("</").append(element).append(">\n");
+        }
+        checkFlush();
+
+        return this;
+    }
+
+    void endKml() throws IOException {
+        while (!mElements.isEmpty()) {
+            end();
+        }
+
+        flush();
+    }
+
+    /**
+     * Encodes the buffered text to the underlying stream.
+     */
+    void flush() throws IOException {
+        if (mBuilder.length() > 0) {
+            mOutputStream.write(mBuilder.toString().getBytes(StandardCharsets.UTF_8));
+            mBuilder.setLength(0);
+        }
+    }
+
+    int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Writes already encoded content, typically a fragment produced by another
+     * writer.
+     */
+    void raw(byte[] bytes, int offset, int length) throws IOException {
+        flush();
+        mOutputStream.write(bytes, offset, length);
+    }
+
+    void setDepth(int depth) {
+        mDepth = depth;
+    }
+
+    KmlWriter start(String element) throws IOException {
+        return start(element, null);
+    }
+
+    KmlWriter start(String element, String id) throws IOException {
+        indent();
+        mBuilder.append('<').append(element);
+        if (id != null) {
+            mBuilder.append(" id=\"").append(escapeAttribute(id)).append('"');
+        }
+        mBuilder.append('>');
+
+        if (element.equals("coordinates")) {
+            mCoordinateCount = 0;
+        } else {
+            mBuilder.append('\n');
+        }
+
+        mElements.push(element);
+        mDepth++;
+
+        return this;
+    }
+
+    void startKml() throws IOException {
+        mBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        mBuilder.append("<kml xmlns=\"").append(NAMESPACE).append("\">\n");
+        mElements.push("kml");
+        mDepth = 1;
+    }
+
+    private void appendText(String value) {
+        if (value == null) {
+            return;
+        }
+
+        if (StringUtils.containsAny(value, '<', '>', '&')) {
+            mBuilder.append("<![CDATA[")
+                    .append(StringUtils.replace(value, "]]>", "]]]]><![CDATA[>"))
+                    .append("]]>");
+        } else {
+            mBuilder.append(value);
+        }
+    }
+
+    private void checkFlush() throws IOException {
+        if (mBuilder.length() > FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    private String escapeAttribute(String value) {
+        if (!StringUtils.containsAny(value, '<', '>', '&', '"')) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '>':
+                    builder.append("&gt;");
+                    break;
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private void indent() {
+        for (int i = 0; i < mDepth; i++) {
+            mBuilder.append('\t');
+        }
+    }
+}
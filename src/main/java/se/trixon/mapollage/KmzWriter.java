@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a KMZ archive.
+ * <p>
+ * Thumbnails are added as they are produced and STORED, since recompressing
+ * JPEG data gains nothing. The document is added last as doc.kml, followed
+ * by its tiles if the placemarks are tiled.
+ *
+ * @author Patrik Karlström
+ */
+class KmzWriter implements Closeable {
+
+    static final String DOCUMENT_ENTRY = "doc.kml";
+    static final String THUMBNAIL_DIR = "thumbnails";
+
+    private final HashSet<String> mEntries = new HashSet<>();
+    private final ZipOutputStream mZipOutputStream;
+
+    static String getThumbnailEntry(String imageId) {
+        return String.format("%s/%s.jpg", THUMBNAIL_DIR, imageId);
+    }
+
+    KmzWriter(File file) throws IOException {
+        mZipOutputStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mZipOutputStream.close();
+    }
+
+    void putDocument(File kmlFile) throws IOException {
+        putFile(DOCUMENT_ENTRY, kmlFile);
+    }
+
+    void putFile(String name, File file) throws IOException {
+        mZipOutputStream.putNextEntry(new ZipEntry(name));
+        Files.copy(file.toPath(), mZipOutputStream);
+        mZipOutputStream.closeEntry();
+    }
+
+    /**
+     * Adds a thumbnail unless one with the same id is already stored.
+     */
+    void putThumbnail(String imageId, byte[] data, long crc) throws IOException {
+        String name = getThumbnailEntry(imageId);
+        if (!mEntries.add(name)) {
+            return;
+        }
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc);
+
+        mZipOutputStream.putNextEntry(entry);
+        mZipOutputStream.write(data);
+        mZipOutputStream.closeEntry();
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Record of the previous run to a destination, used by the incremental mode.
+ * <p>
+ * Keyed by absolute path, size and last modified time, every entry holds
+ * what the assembler needs from a photo together with its rendered
+ * placemark. The placemarks stay in the file and are read on demand, only
+ * the index is kept in memory. A manifest written with another signature,
+ * that is other settings, is ignored.
+ * <p>
+ * The index is stored column by column in primitive arrays, about 90 bytes
+ * per photo, and the paths are only kept as 64 bit hashes in an open
+ * addressing table. An {@link Entry} is created when a photo is looked up
+ * and dropped once it has been assembled.
+ * <p>
+ * The image ids of the previous run that are put again are marked in a bit
+ * set, which tells what thumbnails are no longer referred to without
+ * keeping the ids of the current run.
+ *
+ * @author Patrik Karlström
+ */
+class Manifest implements Closeable {
+
+    private static final int FILE_FORMAT_VERSION = 2;
+    private static final byte FLAG_EXIF = 1;
+    private static final byte FLAG_IMAGE_ID = 4;
+    private static final byte FLAG_LOCATION = 2;
+    private static final byte FLAG_WIDE_IMAGE_ID = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAGIC = 0x4d504d46;
+
+    private FileChannel mChannel;
+    private int mCount;
+    private long[] mDates;
+    private int[] mDescriptionHashes;
+    private final File mFile;
+    private byte[] mFlags;
+    private int[] mFragmentLengths;
+    private long[] mFragmentOffsets;
+    private long[] mImageIds;
+    private long[] mLastModifieds;
+    private double[] mLats;
+    private double[] mLons;
+    private DataOutputStream mOutput;
+    private long[] mPathHashes;
+    private final String mSignature;
+    private long[] mSizes;
+    private int[] mSlots;
+    private long[] mSortedImageIds;
+    private final File mTempFile;
+    private BitSet mUsedImageIds;
+
+    Manifest(File file, String signature) {
+        mFile = file;
+        mSignature = signature;
+        mTempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+        }
+
+        if (mOutput != null) {
+            mOutput.close();
+            mOutput = null;
+            Files.deleteIfExists(mTempFile.toPath());
+        }
+    }
+
+    /**
+     * Replaces the previous manifest with the entries that have been put.
+     */
+    void commit() throws IOException {
+        mOutput.writeBoolean(false);
+        mOutput.close();
+        mOutput = null;
+
+        if (mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+        }
+
+        Files.move(mTempFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Thread safe
+     *
+     * @param file
+     * @param attrs
+     * @return the entry of an unchanged file or null
+     */
+    Entry get(File file, BasicFileAttributes attrs) {
+        int index = indexOf(hash(file.getAbsolutePath()));
+        if (index < 0 || mSizes[index] != attrs.size() || mLastModifieds[index] != attrs.lastModifiedTime().toMillis()) {
+            return null;
+        }
+
+        byte flags = mFlags[index];
+        Entry entry = new Entry(
+                mSizes[index],
+                mLastModifieds[index],
+                (flags & FLAG_EXIF) != 0,
+                (flags & FLAG_LOCATION) != 0,
+                mDates[index],
+                mLats[index],
+                mLons[index],
+                getImageId(index),
+                mDescriptionHashes[index]
+        );
+        entry.mFragmentLength = mFragmentLengths[index];
+        entry.mFragmentOffset = mFragmentOffsets[index];
+
+        return entry;
+    }
+
+    /**
+     * @return the image ids of the previous run that no entry put since
+     * {@link #open()} refers to
+     */
+    Set<String> getUnusedImageIds() {
+        HashSet<String> imageIds = new HashSet<>();
+        for (int i = 0; i < mCount; i++) {
+            if ((mFlags[i] & FLAG_IMAGE_ID) != 0 && !mUsedImageIds.get(Arrays.binarySearch(mSortedImageIds, mImageIds[i]))) {
+                imageIds.add(getImageId(i));
+            }
+        }
+
+        return imageIds;
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    void load() throws IOException {
+        clear();
+        if (!mFile.isFile()) {
+            return;
+        }
+
+        try (CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(new FileInputStream(mFile), 1 << 16));
+                DataInputStream input = new DataInputStream(countingInputStream)) {
+            if (input.readInt() != MAGIC || input.readInt() != FILE_FORMAT_VERSION || !input.readUTF().equals(mSignature)) {
+                return;
+            }
+
+            while (input.readBoolean()) {
+                String path = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                boolean hasExif = input.readBoolean();
+                boolean hasLocation = input.readBoolean();
+                long date = input.readLong();
+                double lat = input.readDouble();
+                double lon = input.readDouble();
+                String imageId = input.readBoolean() ? input.readUTF() : null;
+                int descriptionHash = input.readInt();
+
+                int fragmentLength = input.readInt();
+                long fragmentOffset = countingInputStream.getByteCount();
+                input.skipBytes(fragmentLength);
+
+                byte flags = (byte) ((hasExif ? FLAG_EXIF : 0) | (hasLocation ? FLAG_LOCATION : 0));
+                long imageIdValue = 0;
+                if (imageId != null) {
+                    try {
+                        imageIdValue = Long.parseUnsignedLong(imageId, 16);
+                    } catch (NumberFormatException ex) {
+                        //not one of ours, process the photo again
+                        continue;
+                    }
+                    flags |= FLAG_IMAGE_ID | (imageId.length() > 8 ? FLAG_WIDE_IMAGE_ID : 0);
+                }
+
+                if (mCount == mSizes.length) {
+                    grow();
+                }
+
+                mPathHashes[mCount] = hash(path);
+                mSizes[mCount] = size;
+                mLastModifieds[mCount] = lastModified;
+                mFlags[mCount] = flags;
+                mDates[mCount] = date;
+                mLats[mCount] = lat;
+                mLons[mCount] = lon;
+                mImageIds[mCount] = imageIdValue;
+                mDescriptionHashes[mCount] = descriptionHash;
+                mFragmentLengths[mCount] = fragmentLength;
+                mFragmentOffsets[mCount] = fragmentOffset;
+                mCount++;
+            }
+        } catch (EOFException ex) {
+            clear();
+        }
+
+        index();
+
+        if (mCount > 0) {
+            mChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * Starts a new manifest, the previous one is kept until
+     * {@link #commit()}.
+     */
+    void open() throws IOException {
+        mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile), 1 << 16));
+        mOutput.writeInt(MAGIC);
+        mOutput.writeInt(FILE_FORMAT_VERSION);
+        mOutput.writeUTF(mSignature);
+
+        int size = 0;
+        long[] imageIds = new long[mCount];
+        for (int i = 0; i < mCount; i++) {
+            if ((mFlags[i] & FLAG_IMAGE_ID) != 0) {
+                imageIds[size++] = mImageIds[i];
+            }
+        }
+        Arrays.sort(imageIds, 0, size);
+
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || imageIds[i] != imageIds[distinct - 1]) {
+                imageIds[distinct++] = imageIds[i];
+            }
+        }
+        mSortedImageIds = Arrays.copyOf(imageIds, distinct);
+        mUsedImageIds = new BitSet(distinct);
+    }
+
+    void put(File file, Entry entry, byte[] fragment) throws IOException {
+        mOutput.writeBoolean(true);
+        mOutput.writeUTF(file.getAbsolutePath());
+        mOutput.writeLong(entry.mSize);
+        mOutput.writeLong(entry.mLastModified);
+        mOutput.writeBoolean(entry.mHasExif);
+        mOutput.writeBoolean(entry.mHasLocation);
+        mOutput.writeLong(entry.mDate);
+        mOutput.writeDouble(entry.mLat);
+        mOutput.writeDouble(entry.mLon);
+        mOutput.writeBoolean(entry.mImageId != null);
+        if (entry.mImageId != null) {
+            mOutput.writeUTF(entry.mImageId);
+            markUsed(entry.mImageId);
+        }
+        mOutput.writeInt(entry.mDescriptionHash);
+
+        int length = fragment == null ? 0 : fragment.length;
+        mOutput.writeInt(length);
+        if (length > 0) {
+            mOutput.write(fragment);
+        }
+    }
+
+    /**
+     * Thread safe
+     *
+     * @param entry
+     * @return the rendered placemark of the entry, null if it had none
+     * @throws IOException
+     */
+    byte[] readFragment(Entry entry) throws IOException {
+        if (entry.mFragmentLength == 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(entry.mFragmentLength);
+        long position = entry.mFragmentOffset;
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException(mFile.getAbsolutePath());
+            }
+        }
+
+        return buffer.array();
+    }
+
+    private void clear() {
+        mCount = 0;
+        mDates = new long[INITIAL_CAPACITY];
+        mDescriptionHashes = new int[INITIAL_CAPACITY];
+        mFlags = new byte[INITIAL_CAPACITY];
+        mFragmentLengths = new int[INITIAL_CAPACITY];
+        mFragmentOffsets = new long[INITIAL_CAPACITY];
+        mImageIds = new long[INITIAL_CAPACITY];
+        mLastModifieds = new long[INITIAL_CAPACITY];
+        mLats = new double[INITIAL_CAPACITY];
+        mLons = new double[INITIAL_CAPACITY];
+        mPathHashes = new long[INITIAL_CAPACITY];
+        mSizes = new long[INITIAL_CAPACITY];
+        mSlots = new int[0];
+    }
+
+    private String getImageId(int index) {
+        byte flags = mFlags[index];
+        if ((flags & FLAG_IMAGE_ID) == 0) {
+            return null;
+        }
+
+        return String.format((flags & FLAG_WIDE_IMAGE_ID) != 0 ? "%016x" : "%08x", mImageIds[index]);
+    }
+
+    private void grow() {
+        int capacity = mCount * 2;
+        mDates = Arrays.copyOf(mDates, capacity);
+        mDescriptionHashes = Arrays.copyOf(mDescriptionHashes, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+        mFragmentLengths = Arrays.copyOf(mFragmentLengths, capacity);
+        mFragmentOffsets = Arrays.copyOf(mFragmentOffsets, capacity);
+        mImageIds = Arrays.copyOf(mImageIds, capacity);
+        mLastModifieds = Arrays.copyOf(mLastModifieds, capacity);
+        mLats = Arrays.copyOf(mLats, capacity);
+        mLons = Arrays.copyOf(mLons, capacity);
+        mPathHashes = Arrays.copyOf(mPathHashes, capacity);
+        mSizes = Arrays.copyOf(mSizes, capacity);
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the path. Together with the size and the last
+     * modified time it has to match for a photo to be reused, a collision
+     * of all three is not a practical concern.
+     */
+    private long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * Builds the table of path hashes, at most half full. A path that occurs
+     * more than once refers to its last entry.
+     */
+    private void index() {
+        int capacity = 2;
+        while (capacity < mCount * 2) {
+            capacity <<= 1;
+        }
+
+        mSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < mCount; i++) {
+            int slot = (int) mPathHashes[i] & mask;
+            while (mSlots[slot] != 0 && mPathHashes[mSlots[slot] - 1] != mPathHashes[i]) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @return the index of the entry with the path hash, or -1
+     */
+    private int indexOf(long pathHash) {
+        int mask = mSlots.length - 1;
+        for (int slot = (int) pathHash & mask; mSlots.length > 0 && mSlots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = mSlots[slot] - 1;
+            if (mPathHashes[index] == pathHash) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private void markUsed(String imageId) {
+        try {
+            int index = Arrays.binarySearch(mSortedImageIds, Long.parseUnsignedLong(imageId, 16));
+            if (index >= 0) {
+                mUsedImageIds.set(index);
+            }
+        } catch (NumberFormatException ex) {
+            //not one of ours, can not be in the previous run
+        }
+    }
+
+    static class Entry {
+
+        private final long mDate;
+        private final int mDescriptionHash;
+        private int mFragmentLength;
+        private long mFragmentOffset;
+        private final boolean mHasExif;
+        private final boolean mHasLocation;
+        private final String mImageId;
+        private final long mLastModified;
+        private final double mLat;
+        private final double mLon;
+        private final long mSize;
+
+        Entry(long size, long lastModified, boolean hasExif, boolean hasLocation, long date, double lat, double lon, String imageId, int descriptionHash) {
+            mSize = size;
+            mLastModified = lastModified;
+            mHasExif = hasExif;
+            mHasLocation = hasLocation;
+            mDate = date;
+            mLat = lat;
+            mLon = lon;
+            mImageId = imageId;
+            mDescriptionHash = descriptionHash;
+        }
+
+        long getDate() {
+            return mDate;
+        }
+
+        int getDescriptionHash() {
+            return mDescriptionHash;
+        }
+
+        String getImageId() {
+            return mImageId;
+        }
+
+        double getLat() {
+            return mLat;
+        }
+
+        double getLon() {
+            return mLon;
+        }
+
+        boolean hasExif() {
+            return mHasExif;
+        }
+
+        boolean hasLocation() {
+            return mHasLocation;
+        }
+
+        boolean hasPlacemark() {
+            return mFragmentLength > 0;
+        }
+    }
+}
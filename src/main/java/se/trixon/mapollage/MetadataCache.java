@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent store of the {@link PhotoInfo} values, keyed by absolute path,
+ * size and last modified time.
+ *
+ * @author Patrik Karlström
+ */
+class MetadataCache {
+
+    private static final int FILE_FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4d504d43;
+    private static final long MAX_UNUSED_DAYS = 180;
+
+    private final File mCacheFile;
+    private volatile boolean mDirty;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final int mToday = (int) TimeUnit.MILLISECONDS.toDays(System.currentTimeMillis());
+
+    MetadataCache(File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    /**
+     * Thread safe
+     *
+     * @param file
+     * @return the cached data or null if missing or stale
+     */
+    byte[] get(File file) {
+        Entry entry = mEntries.get(file.getAbsolutePath());
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            if (entry.mSize == attrs.size() && entry.mLastModified == attrs.lastModifiedTime().toMillis()) {
+                if (entry.mLastUsed != mToday) {
+                    entry.mLastUsed = mToday;
+                    mDirty = true;
+                }
+
+                return entry.mData;
+            }
+        } catch (IOException ex) {
+            //nvm
+        }
+
+        return null;
+    }
+
+    void load() throws IOException {
+        mEntries.clear();
+        if (!mCacheFile.isFile()) {
+            return;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile), 1 << 16))) {
+            if (input.readInt() != MAGIC || input.readInt() != FILE_FORMAT_VERSION) {
+                mDirty = true;
+                return;
+            }
+
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                Entry entry = new Entry(input.readLong(), input.readLong(), input.readInt(), new byte[input.readUnsignedShort()]);
+                input.readFully(entry.mData);
+
+                if (mToday - entry.mLastUsed > MAX_UNUSED_DAYS) {
+                    mDirty = true;
+                } else {
+                    mEntries.put(path, entry);
+                }
+            }
+        } catch (EOFException ex) {
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Thread safe
+     *
+     * @param file
+     * @param data
+     */
+    void put(File file, byte[] data) {
+        if (data.length > 0xffff) {
+            return;
+        }
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            mEntries.put(file.getAbsolutePath(), new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), mToday, data));
+            mDirty = true;
+        } catch (IOException ex) {
+            //nvm
+        }
+    }
+
+    void save() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+
+        ArrayList<Map.Entry<String, Entry>> mapEntries = new ArrayList<>(mEntries.entrySet());
+        File tempFile = new File(mCacheFile.getParentFile(), mCacheFile.getName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FILE_FORMAT_VERSION);
+            output.writeInt(mapEntries.size());
+
+            for (Map.Entry<String, Entry> mapEntry : mapEntries) {
+                Entry entry = mapEntry.getValue();
+                output.writeUTF(mapEntry.getKey());
+                output.writeLong(entry.mSize);
+                output.writeLong(entry.mLastModified);
+                output.writeInt(entry.mLastUsed);
+                output.writeShort(entry.mData.length);
+                output.write(entry.mData);
+            }
+        }
+
+        Files.move(tempFile.toPath(), mCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        mDirty = false;
+    }
+
+    private static class Entry {
+
+        private final byte[] mData;
+        private final long mLastModified;
+        private volatile int mLastUsed;
+        private final long mSize;
+
+        Entry(long size, long lastModified, int lastUsed, byte[] data) {
+            mSize = size;
+            mLastModified = lastModified;
+            mLastUsed = lastUsed;
+            mData = data;
+        }
+    }
+}
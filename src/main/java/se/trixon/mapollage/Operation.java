@@ -16,61 +16,66 @@
 package se.trixon.mapollage;
 
 import com.drew.imaging.ImageProcessingException;
-import com.drew.metadata.exif.GpsDescriptor;
-import com.drew.metadata.exif.GpsDirectory;
-import de.micromata.opengis.kml.v_2_2_0.BalloonStyle;
-import de.micromata.opengis.kml.v_2_2_0.Boundary;
-import de.micromata.opengis.kml.v_2_2_0.ColorMode;
-import de.micromata.opengis.kml.v_2_2_0.Coordinate;
-import de.micromata.opengis.kml.v_2_2_0.Document;
-import de.micromata.opengis.kml.v_2_2_0.Feature;
-import de.micromata.opengis.kml.v_2_2_0.Folder;
-import de.micromata.opengis.kml.v_2_2_0.Icon;
-import de.micromata.opengis.kml.v_2_2_0.IconStyle;
-import de.micromata.opengis.kml.v_2_2_0.Kml;
-import de.micromata.opengis.kml.v_2_2_0.KmlFactory;
-import de.micromata.opengis.kml.v_2_2_0.LineString;
-import de.micromata.opengis.kml.v_2_2_0.LineStyle;
-import de.micromata.opengis.kml.v_2_2_0.LinearRing;
-import de.micromata.opengis.kml.v_2_2_0.Placemark;
-import de.micromata.opengis.kml.v_2_2_0.Point;
-import de.micromata.opengis.kml.v_2_2_0.PolyStyle;
-import de.micromata.opengis.kml.v_2_2_0.Polygon;
-import de.micromata.opengis.kml.v_2_2_0.Style;
-import de.micromata.opengis.kml.v_2_2_0.StyleState;
-import de.micromata.opengis.kml.v_2_2_0.TimeStamp;
+import com.google.gson.Gson;
 import java.awt.Dimension;
-import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.nio.file.FileVisitOption;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.text.DateFormat;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.ResourceBundle;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.Scaler;
 import se.trixon.almond.util.SystemHelper;
-import se.trixon.almond.util.ext.GrahamScan;
 import se.trixon.mapollage.profile.Profile;
 import se.trixon.mapollage.profile.ProfileDescription;
 import se.trixon.mapollage.profile.ProfileDescription.DescriptionSegment;
@@ -86,33 +91,42 @@ import se.trixon.mapollage.profile.ProfileSource;
  */
 public class Operation implements Runnable {
 
+    private static final int FILE_QUEUE_CAPACITY = 4096;
     private static final Logger LOGGER = Logger.getLogger(Operation.class.getName());
 
-    private final BalloonStyle mBalloonStyle;
     private final ResourceBundle mBundle;
-    private final DateFormat mDateFormatDate = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
+    private final CancellationToken mCancellationToken = new CancellationToken();
+    private final DateFormatter mDateFormatDate = new DateFormatter(DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT, FormatStyle.MEDIUM), false);
+    private final StringBuilder mDescriptionBuilder = new StringBuilder(1024);
+    private final HashMap<String, DescriptionTemplate> mDescriptionTemplates = new HashMap<>();
     private final File mDestinationFile;
-    private final HashMap<String, Properties> mDirToDesc = new HashMap<>();
-    private final Document mDocument;
-    private final HashMap<File, File> mFileThumbMap = new HashMap<>();
+    private final Map<String, Properties> mDirToDesc = new ConcurrentHashMap<>();
     private final List<File> mFiles = new ArrayList<>();
     private final Pattern mFolderByRegexPattern;
-    private final HashMap<Folder, ArrayList<Coordinate>> mFolderPolygonInputs = new HashMap<>();
-    private final Map<String, Folder> mFolders = new HashMap<>();
+    private final Map<String, FolderNode> mFolders = new HashMap<>();
+    private Manifest mManifest;
+    private MetadataCache mMetadataCache;
     private boolean mInterrupted = false;
-    private final Kml mKml = new Kml();
-    private final ArrayList<LineNode> mLineNodes = new ArrayList<>();
-    private final OperationListener mListener;
+    private KmlWriter mKmlWriter;
+    private final boolean mKmz;
+    private File mKmzFile;
+    private KmzWriter mKmzWriter;
+    private final DateFormatter mLineNameDateFormat = DateFormatter.ofPattern("yyyyMMdd HHmmss", Locale.ROOT);
+    private final ProgressChannel mListener;
     private int mNumOfErrors = 0;
     private int mNumOfExif;
+    private int mNumOfFiles;
     private int mNumOfGps;
     private int mNumOfPlacemarks;
+    private int mNumOfReused;
+    private int mNumOfTrackLogged;
     private final Options mOptions = Options.getInstance();
-    private Folder mPathFolder;
-    private Folder mPathGapFolder;
-    private PhotoInfo mPhotoInfo;
-    private Folder mPolygonFolder;
-    private final HashMap<Folder, Folder> mPolygonRemovals = new HashMap<>();
+    private File mOutputFile;
+    private final ByteArrayOutputStream mPlacemarkBuffer = new ByteArrayOutputStream(2048);
+    private File mPlacemarkFile;
+    private PlacemarkSpool mPlacemarkSpool;
+    private final KmlWriter mPlacemarkWriter = new KmlWriter(mPlacemarkBuffer);
+    private ZipFile mPreviousKmz;
     private final Profile mProfile;
     private final ProfileDescription mProfileDescription;
     private final ProfileFolder mProfileFolder;
@@ -120,14 +134,19 @@ public class Operation implements Runnable {
     private final ProfilePhoto mProfilePhoto;
     private final ProfilePlacemark mProfilePlacemark;
     private final ProfileSource mProfileSource;
-    private Folder mRootFolder;
-    private final Map<String, Folder> mRootFolders = new HashMap<>();
+    private FolderNode mRootFolder;
     private long mStartTime;
+    private String mStaticDescription;
+    private final ArrayList<String> mStyleKeys = new ArrayList<>();
+    private final HashMap<String, Integer> mStyles = new HashMap<>();
     private File mThumbsDir;
-    private final SimpleDateFormat mTimeStampDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
+    private File mTilesDir;
+    private final DateFormatter mTimeStampDateFormat = DateFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssX", Locale.ROOT);
+    private final Track mTrack = new Track();
+    private TrackLog mTrackLog;
 
     public Operation(OperationListener operationListener, Profile profile) {
-        mListener = operationListener;
+        mListener = new ProgressChannel(operationListener);
         mProfile = profile;
         mProfileSource = mProfile.getSource();
         mProfileFolder = mProfile.getFolder();
@@ -136,17 +155,11 @@ public class Operation implements Runnable {
         mProfileDescription = mProfile.getDescription();
         mProfilePhoto = mProfile.getPhoto();
         mDestinationFile = mProfile.getDestinationFile();
+        mKmz = mProfile.isKmz();
 
         mFolderByRegexPattern = Pattern.compile(mProfileFolder.getRegex());
 
         mBundle = SystemHelper.getBundle(Operation.class, "Bundle");
-        mDocument = mKml.createAndSetDocument().withOpen(true);
-        mBalloonStyle = KmlFactory.createBalloonStyle()
-                .withId("BalloonStyleId")
-                //aabbggrr
-                .withBgColor("ff272420")
-                .withTextColor("ffeeeeee")
-                .withText("$[description]");
     }
 
     @Override
@@ -161,82 +174,37 @@ public class Operation implements Runnable {
         mStartTime = System.currentTimeMillis();
         Date date = new Date(mStartTime);
         SimpleDateFormat dateFormat = new SimpleDateFormat();
+        mListener.start();
         mListener.onOperationStarted();
         mListener.onOperationLog(dateFormat.format(date));
 
-        String status;
-        mRootFolder = mDocument.createAndAddFolder().withName(getSafeXmlString(mProfileFolder.getRootName())).withOpen(true);
-
-        String href = "<a href=\"https://trixon.se/mapollage/\">Mapollage</a>";
-        String description = String.format("<p>%s %s, %s</p>%s",
-                Dict.MADE_WITH.toString(),
-                href,
-                dateFormat.format(date),
-                mProfileFolder.getRootDescription().replaceAll("\\n", "<br />"));
-        mRootFolder.setDescription(getSafeXmlString(description));
-
-        mListener.onOperationProcessingStarted();
         try {
-            mInterrupted = !generateFileList();
-        } catch (IOException ex) {
-            logError(ex.getMessage());
-        }
-
-        if (!mInterrupted && !mFiles.isEmpty()) {
-            if (isUsingThumbnails()) {
-                mThumbsDir = new File(mDestinationFile.getParent() + String.format("/%s-thumbnails", FilenameUtils.getBaseName(mDestinationFile.getAbsolutePath())));
-                try {
-                    FileUtils.forceMkdir(mThumbsDir);
-                } catch (IOException ex) {
-                    logError(String.format("E000 %s", ex.getMessage()));
-                }
-            }
-
-            mListener.onOperationLog(String.format(mBundle.getString("found_count"), mFiles.size()));
-            mListener.onOperationLog("");
-
-            int progress = 0;
-            for (File file : mFiles) {
-                mListener.onOperationProgress(file.getAbsolutePath());
-                mListener.onOperationProgress(++progress, mFiles.size());
-
-                try {
-                    addPhoto(file);
-                } catch (ImageProcessingException ex) {
-                    logError(String.format("E000 %s", ex.getMessage()));
-                } catch (IOException ex) {
-                    logError(String.format("E000 %s", file.getAbsolutePath()));
-                }
-
-                if (Thread.interrupted()) {
-                    mInterrupted = true;
-                    break;
-                }
+            try {
+                process(dateFormat.format(date));
+            } finally {
+                closeDocument();
             }
 
-            if (mProfilePath.isDrawPath() && mLineNodes.size() > 1) {
-                addPath();
+            if (mNumOfErrors > 0) {
+                logError(mBundle.getString("error_description"));
             }
+        } finally {
+            mListener.stop();
         }
+    }
 
-        if (mInterrupted) {
-            status = Dict.TASK_ABORTED.toString();
-            mListener.onOperationLog("\n" + status);
-            mListener.onOperationInterrupted();
-        } else if (!mFiles.isEmpty()) {
-            if (mProfilePath.isDrawPolygon()) {
-                addPolygons();
-            }
-            saveToFile();
-            mProfile.setLastRun(System.currentTimeMillis());
-        }
+    /**
+     * Requests the operation to stop, it will finish as interrupted.
+     */
+    public void cancel() {
+        mCancellationToken.cancel();
+    }
 
-        if (mNumOfErrors > 0) {
-            logError(mBundle.getString("error_description"));
-        }
+    CancellationToken getCancellationToken() {
+        return mCancellationToken;
     }
 
-    HashMap<String, Properties> getDirToDesc() {
+    Map<String, Properties> getDirToDesc() {
         return mDirToDesc;
     }
 
@@ -248,267 +216,310 @@ public class Operation implements Runnable {
         return mListener;
     }
 
+    /**
+     * Not thread safe, package private for the benchmarks.
+     */
+    String getPlacemarkDescription(File file, PhotoInfo photoInfo, long exifDate) throws IOException {
+        DescriptionTemplate template = getDescriptionTemplate(file);
+        if (template == null) {
+            return "";
+        }
+
+        return template.render(mDescriptionBuilder, (builder, segment) -> {
+            switch (segment) {
+                case ALTITUDE:
+                    appendGps(builder, photoInfo, photoInfo.getGpsAltitudeDescription());
+                    break;
+
+                case BEARING:
+                    appendGps(builder, photoInfo, photoInfo.getGpsBearingDescription());
+                    break;
+
+                case COORDINATE:
+                    appendGps(builder, photoInfo, photoInfo.getGpsCoordinateDescription());
+                    break;
+
+                case DATE:
+                    builder.append(mDateFormatDate.format(exifDate));
+                    break;
+
+                case FILENAME:
+                    builder.append(file.getName());
+                    break;
+
+                case PHOTO:
+                    builder.append(getDescPhoto(file, photoInfo));
+                    break;
+
+                default:
+                    throw new AssertionError();
+            }
+        });
+    }
+
     ProfileDescription getProfileDescription() {
         return mProfileDescription;
     }
 
+    ProfileSource getProfileSource() {
+        return mProfileSource;
+    }
+
     void logError(String message) {
         mNumOfErrors++;
         mListener.onOperationError(message);
     }
 
-    private void addPath() {
-        Collections.sort(mLineNodes, (LineNode o1, LineNode o2) -> o1.getDate().compareTo(o2.getDate()));
+    /**
+     * Computes the concave rings of the folders without sub folders, so every
+     * placemark is triangulated once. A parent keeps the convex hull of the
+     * hulls of its children, since a concave ring from their outlines alone
+     * could cut through them.
+     */
+    private void addConcaveRings(FolderNode folder, Map<FolderNode, double[][]> concaveRings) {
+        if (!folder.getFolders().isEmpty()) {
+            for (FolderNode subFolder : folder.getFolders()) {
+                addConcaveRings(subFolder, concaveRings);
+            }
 
-        mPathFolder = KmlFactory.createFolder().withName(Dict.PATH_GFX.toString());
-        mPathGapFolder = KmlFactory.createFolder().withName(Dict.PATH_GAP_GFX.toString());
+            return;
+        }
 
-        String pattern = getPattern(mProfilePath.getSplitBy());
-        SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+        ConcaveHull concaveHull = new ConcaveHull();
+        for (int i = 0; i < folder.getPlacemarkCount(); i++) {
+            int index = folder.getPlacemark(i);
+            concaveHull.add(mPlacemarkSpool.getLon(index), mPlacemarkSpool.getLat(index));
+        }
 
-        TreeMap<String, ArrayList<LineNode>> map = new TreeMap<>();
+        double[][] ring = concaveHull.getRing(mProfilePath.getPolygonEdge());
+        if (ring != null) {
+            concaveRings.put(folder, ring);
+        }
+    }
 
-        mLineNodes.forEach((node) -> {
-            String key = dateFormat.format(node.getDate());
-            if (!map.containsKey(key)) {
-                map.put(key, new ArrayList<>());
-            }
-            map.get(key).add(node);
-        });
+    /**
+     * Merges the hulls of the sub folders into the hull of the folder, bottom
+     * up.
+     *
+     * @return true if the folder adds anything to the polygon folder of its
+     * parent
+     */
+    private boolean addConvexHulls(FolderNode folder, Set<FolderNode> nonEmptyFolders) {
+        ConvexHull convexHull = folder.getConvexHull();
+        boolean hasContent = false;
+        for (FolderNode subFolder : folder.getFolders()) {
+            hasContent |= addConvexHulls(subFolder, nonEmptyFolders);
+            convexHull.add(subFolder.getConvexHull());
+        }
 
-        //Add paths
-        for (ArrayList<LineNode> nodes : map.values()) {
-            if (nodes.size() > 1) {
-                Placemark path = mPathFolder.createAndAddPlacemark()
-                        .withName(LineNode.getName(nodes));
+        if (hasContent) {
+            nonEmptyFolders.add(folder);
+        }
 
-                Style pathStyle = path.createAndAddStyle();
-                pathStyle.createAndSetLineStyle()
-                        .withColor("ff0000ff")
-                        .withWidth(mProfilePath.getWidth());
+        return hasContent || convexHull.isPolygon();
+    }
 
-                LineString line = path
-                        .createAndSetLineString()
-                        .withExtrude(false)
-                        .withTessellate(true);
+    private void addManifestPhoto(ProcessedPhoto processedPhoto, Manifest.Entry entry) {
+        File file = processedPhoto.getFile();
+        long date = entry.getDate();
 
-                nodes.forEach((node) -> {
-                    line.addToCoordinates(node.getLon(), node.getLat());
-                });
+        if (entry.hasExif()) {
+            mNumOfExif++;
+            if (entry.hasLocation()) {
+                mNumOfGps++;
             }
         }
 
-        //Add path gap
-        ArrayList<LineNode> previousNodes = null;
-        for (ArrayList<LineNode> nodes : map.values()) {
-            if (previousNodes != null) {
-                Placemark path = mPathGapFolder.createAndAddPlacemark()
-                        .withName(LineNode.getName(previousNodes, nodes));
-
-                Style pathStyle = path.createAndAddStyle();
-                pathStyle.createAndSetLineStyle()
-                        .withColor("ff00ffff")
-                        .withWidth(mProfilePath.getWidth());
+        if (entry.hasLocation() && date != Long.MIN_VALUE && mProfilePath.isDrawPath()) {
+            mTrack.add(date, entry.getLat(), entry.getLon());
+        }
 
-                LineString line = path
-                        .createAndSetLineString()
-                        .withExtrude(false)
-                        .withTessellate(true);
+        try {
+            if (entry.hasPlacemark()) {
+                FolderNode folder = getFolder(file, date);
+                String imageId = entry.getImageId();
 
-                LineNode prevLast = previousNodes.get(previousNodes.size() - 1);
-                LineNode currentFirst = nodes.get(0);
+                if (isUsingThumbnails() && mKmz) {
+                    mKmzWriter.putThumbnail(imageId, processedPhoto.getThumbnail(), processedPhoto.getThumbnailCrc());
+                }
 
-                line.addToCoordinates(prevLast.getLon(), prevLast.getLat());
-                line.addToCoordinates(currentFirst.getLon(), currentFirst.getLat());
+                int style = getStyle(imageId);
+                folder.addPlacemark(mPlacemarkSpool.add(processedPhoto.getFragment(), entry.getLat(), entry.getLon(), style, entry.getDate()));
+                if (mProfilePath.isDrawPolygon()) {
+                    folder.getConvexHull().add(entry.getLon(), entry.getLat());
+                }
+                mNumOfPlacemarks++;
             }
-            previousNodes = nodes;
+
+            mManifest.put(file, entry, processedPhoto.getFragment());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
-    }
 
-    private void addPhoto(File file) throws ImageProcessingException, IOException {
-        mPhotoInfo = new PhotoInfo(file, mProfileSource.isIncludeNullCoordinate());
-        try {
-            mPhotoInfo.init();
-        } catch (ImageProcessingException | IOException e) {
-            if (mPhotoInfo.hasExif()) {
-                mNumOfExif++;
-            }
+        mNumOfReused++;
+        mListener.onOperationLog(file.getAbsolutePath());
+    }
 
-            throw e;
+    private void addPhoto(ProcessedPhoto processedPhoto) throws ImageProcessingException, IOException {
+        Manifest.Entry entry = processedPhoto.getManifestEntry();
+        if (entry != null) {
+            addManifestPhoto(processedPhoto, entry);
+            return;
         }
 
-        boolean hasLocation = false;
-        if (mPhotoInfo.hasExif()) {
+        File file = processedPhoto.getFile();
+        PhotoInfo photoInfo = processedPhoto.getPhotoInfo();
+        boolean hasLocation = processedPhoto.hasLocation();
+
+        if (photoInfo.hasExif()) {
             mNumOfExif++;
-            hasLocation = mPhotoInfo.hasGps() && !mPhotoInfo.isZeroCoordinate();
             if (hasLocation) {
                 mNumOfGps++;
             }
-        } else {
-            throw new ImageProcessingException(String.format("E010 %s", file.getAbsolutePath()));
+            if (photoInfo.isTrackLogLocation()) {
+                mNumOfTrackLogged++;
+            }
         }
 
-        Date exifDate = mPhotoInfo.getDate();
-        if (hasLocation && mProfilePath.isDrawPath()) {
-            mLineNodes.add(new LineNode(exifDate, mPhotoInfo.getLat(), mPhotoInfo.getLon()));
+        Exception exception = processedPhoto.getException();
+        if (exception instanceof ImageProcessingException) {
+            throw (ImageProcessingException) exception;
+        } else if (exception instanceof IOException) {
+            throw (IOException) exception;
         }
 
-        if (hasLocation || mProfileSource.isIncludeNullCoordinate()) {
-            Folder folder = getFolder(file, exifDate);
-
-            String imageId = String.format("%08x", FileUtils.checksumCRC32(file));
-            String styleNormalId = String.format("s_%s", imageId);
-            String styleHighlightId = String.format("s_%s_hl", imageId);
-            String styleMapId = String.format("m_%s", imageId);
-
-            Style normalStyle = mDocument
-                    .createAndAddStyle()
-                    .withId(styleNormalId);
-
-            IconStyle normalIconStyle = normalStyle
-                    .createAndSetIconStyle()
-                    .withScale(1.0);
-
-            Style highlightStyle = mDocument
-                    .createAndAddStyle()
-                    .withBalloonStyle(mBalloonStyle)
-                    .withId(styleHighlightId);
+        long exifDate = photoInfo.getDate();
+        if (hasLocation && exifDate != Long.MIN_VALUE && mProfilePath.isDrawPath()) {
+            mTrack.add(exifDate, photoInfo.getLat(), photoInfo.getLon());
+        }
 
-            IconStyle highlightIconStyle = highlightStyle
-                    .createAndSetIconStyle()
-                    .withScale(1.1);
+        String imageId = null;
+        byte[] fragment = null;
 
-            if (mProfilePlacemark.isSymbolAsPhoto()) {
-                Icon icon = KmlFactory.createIcon().withHref(String.format("%s/%s.jpg", mThumbsDir.getName(), imageId));
-                normalIconStyle.setIcon(icon);
-                normalIconStyle.setScale(mProfilePlacemark.getScale());
+        if (hasLocation || mProfileSource.isIncludeNullCoordinate()) {
+            FolderNode folder = getFolder(file, exifDate);
+            imageId = processedPhoto.getImageId();
 
-                double highlightZoom = mProfilePlacemark.getZoom() * mProfilePlacemark.getScale();
-                highlightIconStyle.setIcon(icon);
-                highlightIconStyle.setScale(highlightZoom);
-            }
+            String name = getPlacemarkName(file, exifDate);
+            String desc = getPlacemarkDescription(file, photoInfo, exifDate);
 
-            if (isUsingThumbnails()) {
-                File thumbFile = new File(mThumbsDir, imageId + ".jpg");
-                mFileThumbMap.put(file, thumbFile);
-                if (Files.isWritable(thumbFile.getParentFile().toPath())) {
-                    mPhotoInfo.createThumbnail(thumbFile);
-                } else {
-                    mListener.onOperationLog(String.format(mBundle.getString("insufficient_privileges"), mDestinationFile.getAbsolutePath()));
-                    Thread.currentThread().interrupt();
-                    return;
+            try {
+                if (mKmz && isUsingThumbnails()) {
+                    mKmzWriter.putThumbnail(imageId, processedPhoto.getThumbnail(), processedPhoto.getThumbnailCrc());
                 }
-            }
-
-            mDocument.createAndAddStyleMap().withId(styleMapId)
-                    .addToPair(KmlFactory.createPair().withKey(StyleState.NORMAL).withStyleUrl("#" + styleNormalId))
-                    .addToPair(KmlFactory.createPair().withKey(StyleState.HIGHLIGHT).withStyleUrl("#" + styleHighlightId));
-
-            Placemark placemark = KmlFactory.createPlacemark()
-                    .withName(getSafeXmlString(getPlacemarkName(file, exifDate)))
-                    .withOpen(Boolean.TRUE)
-                    .withStyleUrl("#" + styleMapId);
 
-            String desc = getPlacemarkDescription(file, mPhotoInfo, exifDate);
-            if (!StringUtils.isBlank(desc)) {
-                placemark.setDescription(desc);
+                int style = getStyle(imageId);
+                fragment = writePlacemark(folder, name, desc, exifDate, photoInfo.getLat(), photoInfo.getLon(), style);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
 
-            placemark.createAndSetPoint()
-                    .addToCoordinates(mPhotoInfo.getLon(), mPhotoInfo.getLat(), 0F);
+            mNumOfPlacemarks++;
+        }
 
-            if (mProfilePlacemark.isTimestamp()) {
-                TimeStamp timeStamp = KmlFactory.createTimeStamp();
-                timeStamp.setWhen(mTimeStampDateFormat.format(exifDate));
-                placemark.setTimePrimitive(timeStamp);
+        if (mManifest != null && processedPhoto.getSize() >= 0) {
+            try {
+                mManifest.put(file, new Manifest.Entry(
+                        processedPhoto.getSize(),
+                        processedPhoto.getLastModified(),
+                        photoInfo.hasExif(),
+                        hasLocation,
+                        exifDate,
+                        photoInfo.getLat(),
+                        photoInfo.getLon(),
+                        imageId,
+                        getDescriptionHash(file)
+                ), fragment);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
-
-            folder.addToFeature(placemark);
-            mNumOfPlacemarks++;
         }
 
         mListener.onOperationLog(file.getAbsolutePath());
     }
 
-    private void addPolygon(String name, ArrayList<Coordinate> coordinates, Folder polygonFolder) {
-        List<Point2D.Double> inputs = new ArrayList<>();
-        coordinates.forEach((coordinate) -> {
-            inputs.add(new Point2D.Double(coordinate.getLongitude(), coordinate.getLatitude()));
-        });
-
-        try {
-            List<Point2D.Double> convexHull = GrahamScan.getConvexHullDouble(inputs);
-            Placemark placemark = polygonFolder
-                    .createAndAddPlacemark()
-                    .withName(name);
-
-            Style style = placemark.createAndAddStyle();
-            LineStyle lineStyle = style.createAndSetLineStyle()
-                    .withColor("00000000")
-                    .withWidth(0.0);
-
-            PolyStyle polyStyle = style.createAndSetPolyStyle()
-                    .withColor("ccffffff")
-                    .withColorMode(ColorMode.RANDOM);
-
-            Polygon polygon = placemark.createAndSetPolygon();
-            Boundary boundary = polygon.createAndSetOuterBoundaryIs();
-            LinearRing linearRing = boundary.createAndSetLinearRing();
-
-            convexHull.forEach((node) -> {
-                linearRing.addToCoordinates(node.x, node.y);
-
-            });
-        } catch (IllegalArgumentException e) {
-            System.err.println(e);
+    /**
+     * Appends nothing for photos without GPS data or without the value.
+     */
+    private void appendGps(StringBuilder builder, PhotoInfo photoInfo, String description) {
+        if (photoInfo.hasGps() && description != null) {
+            builder.append(description);
         }
     }
 
-    private void addPolygons() {
-        mPolygonFolder = KmlFactory.createFolder().withName(Dict.POLYGON.toString()).withOpen(false);
-        addPolygons(mPolygonFolder, mRootFolder.getFeature());
+    /**
+     * Joins the placemarks taken within the collapse distance and time of an
+     * earlier placemark into the group of that placemark.
+     *
+     * @return the number of placemarks that became part of another
+     */
+    private int collapsePlacemarks() throws IOException {
+        mPlacemarkSpool.finish();
+        double distance = mProfilePlacemark.getCollapseDistance();
+        long window = mProfilePlacemark.getCollapseTime() * 1000L;
+        SpatialIndex spatialIndex = new SpatialIndex(mPlacemarkSpool, distance);
+        boolean[] grouped = new boolean[mPlacemarkSpool.size()];
+        int[][] members = {new int[16]};
+        int[] numOfMembers = new int[1];
+        int numOfCollapsed = 0;
+
+        for (int leader = 0; leader < grouped.length; leader++) {
+            if (grouped[leader]) {
+                continue;
+            }
 
-        scanForFolderRemoval(mPolygonFolder);
-//        while (scanForFolderRemoval(mPolygonFolder, false)) {
-//            //
-//        }
+            final int leaderIndex = leader;
+            long time = mPlacemarkSpool.getTime(leader);
+            numOfMembers[0] = 0;
+            spatialIndex.query(mPlacemarkSpool.getLat(leader), mPlacemarkSpool.getLon(leader), distance, index -> {
+                if (index != leaderIndex && !grouped[index] && Math.abs(mPlacemarkSpool.getTime(index) - time) <= window) {
+                    grouped[index] = true;
+                    if (numOfMembers[0] == members[0].length) {
+                        members[0] = Arrays.copyOf(members[0], numOfMembers[0] * 2);
+                    }
+                    members[0][numOfMembers[0]++] = index;
+                }
+            });
 
-        for (Folder folder : mPolygonRemovals.keySet()) {
-            Folder parentFolder = mPolygonRemovals.get(folder);
-            parentFolder.getFeature().remove(folder);
+            Arrays.sort(members[0], 0, numOfMembers[0]);
+            mPlacemarkSpool.join(leader, members[0], numOfMembers[0]);
+            numOfCollapsed += numOfMembers[0];
         }
 
-        mRootFolder.getFeature().add(mPolygonFolder);
+        return numOfCollapsed;
     }
 
-    private void addPolygons(Folder polygonParent, List<Feature> features) {
-        for (Feature feature : features) {
-            if (feature instanceof Folder) {
-                Folder folder = (Folder) feature;
+    private void closeDocument() {
+        try {
+            if (mKmlWriter != null) {
+                mKmlWriter.close();
+            }
 
-                if (folder != mPathFolder && folder != mPathGapFolder && folder != mPolygonFolder) {
-                    Folder polygonFolder = polygonParent.createAndAddFolder().withName(folder.getName()).withOpen(true);
-                    mFolderPolygonInputs.put(polygonFolder, new ArrayList<>());
-                    addPolygons(polygonFolder, folder.getFeature());
+            if (mPlacemarkSpool != null) {
+                mPlacemarkSpool.close();
+            }
 
-                    if (mFolderPolygonInputs.get(polygonFolder) != null) {
-                        addPolygon(folder.getName(), mFolderPolygonInputs.get(polygonFolder), polygonParent);
-                    }
-                }
+            if (mKmzWriter != null) {
+                mKmzWriter.close();
             }
 
-            if (feature instanceof Placemark) {
-                Placemark placemark = (Placemark) feature;
+            if (mPreviousKmz != null) {
+                mPreviousKmz.close();
+            }
 
-                Point point = (Point) placemark.getGeometry();
-                ArrayList<Coordinate> coordinates = mFolderPolygonInputs.computeIfAbsent(polygonParent, k -> new ArrayList<>());
-                coordinates.addAll(point.getCoordinates());
+            if (mManifest != null) {
+                mManifest.close();
             }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+
+        if (mOutputFile != null && mOutputFile.isFile()) {
+            mOutputFile.delete();
         }
 
-        ArrayList<Coordinate> rootCoordinates = mFolderPolygonInputs.get(mPolygonFolder);
-        if (polygonParent == mPolygonFolder && rootCoordinates != null) {
-            addPolygon(mPolygonFolder.getName(), rootCoordinates, polygonParent);
+        if (mKmzFile != null && mKmzFile.isFile()) {
+            mKmzFile.delete();
         }
     }
 
@@ -517,33 +528,29 @@ public class Operation implements Runnable {
         mListener.onOperationLog(Dict.GENERATING_FILELIST.toString());
         PathMatcher pathMatcher = mProfileSource.getPathMatcher();
 
-        EnumSet<FileVisitOption> fileVisitOptions;
-        if (mProfileSource.isFollowLinks()) {
-            fileVisitOptions = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-        } else {
-            fileVisitOptions = EnumSet.noneOf(FileVisitOption.class);
-        }
-
         File file = mProfileSource.getDir();
         if (file.isDirectory()) {
-            FileVisitor fileVisitor = new FileVisitor(pathMatcher, mFiles, file, this);
+            DirectoryScanner directoryScanner = new DirectoryScanner(pathMatcher, file, this);
             try {
-                if (mProfileSource.isRecursive()) {
-                    Files.walkFileTree(file.toPath(), fileVisitOptions, Integer.MAX_VALUE, fileVisitor);
-                } else {
-                    Files.walkFileTree(file.toPath(), fileVisitOptions, 1, fileVisitor);
-                }
-
-                if (fileVisitor.isInterrupted()) {
-                    return false;
-                }
+                mFiles.addAll(directoryScanner.scan(mOptions.getThreads()));
+            } catch (InterruptedException ex) {
+                return false;
             } catch (IOException ex) {
                 throw new IOException(String.format("E000 %s", file.getAbsolutePath()));
+            } finally {
+                for (String error : directoryScanner.getErrors()) {
+                    logError(error);
+                }
+            }
+
+            if (mCancellationToken.isCancelled()) {
+                return false;
             }
         } else if (file.isFile() && pathMatcher.matches(file.toPath().getFileName())) {
             mFiles.add(file);
         }
 
+        mNumOfFiles = mFiles.size();
         if (mFiles.isEmpty()) {
             mListener.onOperationFinished(Dict.FILELIST_EMPTY.toString(), 0);
         } else {
@@ -553,8 +560,9 @@ public class Operation implements Runnable {
         return true;
     }
 
-    private String getDescPhoto(File sourceFile, int orientation) throws IOException {
-        Scaler scaler = new Scaler(new Dimension(mPhotoInfo.getOriginalDimension()));
+    private String getDescPhoto(File sourceFile, PhotoInfo photoInfo) throws IOException {
+        int orientation = photoInfo.getOrientation();
+        Scaler scaler = new Scaler(new Dimension(photoInfo.getOriginalDimension()));
         boolean thumbRef = mProfilePhoto.getReference() == ProfilePhoto.Reference.THUMBNAIL;
         boolean portrait = (orientation == 6 || orientation == 8) && thumbRef;
 
@@ -574,11 +582,54 @@ public class Operation implements Runnable {
         int width = portrait ? newDimension.height : newDimension.width;
         int height = portrait ? newDimension.width : newDimension.height;
 
-        String imageTag = String.format(imageTagFormat, getImagePath(sourceFile), width, height);
+        String imageTag = String.format(imageTagFormat, getImagePath(sourceFile, photoInfo), width, height);
 
         return imageTag;
     }
 
+    /**
+     * Thread safe
+     *
+     * @return a hash of the external description that applies to the file,
+     * or 0 in the other description modes
+     */
+    private int getDescriptionHash(File file) {
+        if (mProfileDescription.getMode() == ProfileDescription.DescriptionMode.EXTERNAL) {
+            return Objects.hashCode(getExternalDescription(file));
+        }
+
+        return 0;
+    }
+
+    /**
+     * Not thread safe, every distinct description is compiled once.
+     *
+     * @return the template that applies to the file, or null if there is
+     * no description
+     */
+    private DescriptionTemplate getDescriptionTemplate(File file) {
+        String desc;
+        switch (mProfileDescription.getMode()) {
+            case CUSTOM:
+                desc = mProfileDescription.getCustomValue();
+                break;
+
+            case EXTERNAL:
+                desc = getExternalDescription(file);
+                break;
+
+            case STATIC:
+                desc = getStaticDescription();
+                break;
+
+            default:
+                desc = null;
+                break;
+        }
+
+        return desc == null ? null : mDescriptionTemplates.computeIfAbsent(desc, DescriptionTemplate::new);
+    }
+
     private String getExternalDescription(File file) {
         Properties p = mDirToDesc.get(file.getParent());
         final String key = FilenameUtils.getBaseName(file.getName());
@@ -598,9 +649,9 @@ public class Operation implements Runnable {
         return desc;
     }
 
-    private Folder getFolder(File file, Date date) {
+    private FolderNode getFolder(File file, long date) {
         String key;
-        Folder folder = null;
+        FolderNode folder = null;
 
         switch (mProfileFolder.getFoldersBy()) {
             case DIR:
@@ -631,11 +682,11 @@ public class Operation implements Runnable {
         return folder;
     }
 
-    private Folder getFolder(String key) {
+    private FolderNode getFolder(String key) {
         key = StringUtils.replace(key, "\\", "/");
         String[] levels = StringUtils.split(key, "/");
 
-        Folder parent = mRootFolder;
+        FolderNode parent = mRootFolder;
         String path = "";
 
         for (int i = 0; i < levels.length; i++) {
@@ -650,16 +701,15 @@ public class Operation implements Runnable {
         return parent;
     }
 
-    private Folder getFolder(String key, Folder parent, String name) {
+    private FolderNode getFolder(String key, FolderNode parent, String name) {
         if (!mFolders.containsKey(key)) {
-            Folder folder = parent.createAndAddFolder().withName(getSafeXmlString(name));
-            mFolders.put(key, folder);
+            mFolders.put(key, parent.addFolder(name));
         }
 
         return mFolders.get(key);
     }
 
-    private String getImagePath(File file) {
+    private String getImagePath(File file, PhotoInfo photoInfo) throws IOException {
         String imageSrc;
 
         switch (mProfilePhoto.getReference()) {
@@ -672,13 +722,22 @@ public class Operation implements Runnable {
                 break;
 
             case RELATIVE:
-                Path relativePath = mDestinationFile.toPath().relativize(file.toPath());
-                imageSrc = StringUtils.replace(relativePath.toString(), "..", ".", 1);
+                Path relativePath = mPlacemarkFile.toPath().relativize(file.toPath());
+                imageSrc = relativePath.toString();
+                if (!mKmz) {
+                    //Inside a KMZ, .. refers to the directory of the archive
+                    imageSrc = StringUtils.replace(imageSrc, "..", ".", 1);
+                }
                 break;
 
             case THUMBNAIL:
-                Path thumbPath = mDestinationFile.toPath().relativize(mFileThumbMap.get(file).toPath());
-                imageSrc = StringUtils.replace(thumbPath.toString(), "..", ".", 1);
+                String imageId = photoInfo.getImageId();
+                if (mKmz) {
+                    imageSrc = KmzWriter.getThumbnailEntry(imageId);
+                } else {
+                    Path thumbPath = mPlacemarkFile.toPath().relativize(new File(mThumbsDir, imageId + ".jpg").toPath());
+                    imageSrc = StringUtils.replace(thumbPath.toString(), "..", ".", 1);
+                }
                 break;
 
             default:
@@ -700,89 +759,63 @@ public class Operation implements Runnable {
         return imageSrc;
     }
 
-    private String getPattern(ProfilePath.SplitBy splitBy) {
-        switch (splitBy) {
-            case NONE:
-                return "'NO_SPLIT'";
-            case HOUR:
-                return "yyyyMMddHH";
-            case DAY:
-                return "yyyyMMdd";
-            case WEEK:
-                return "yyyyww";
-            case MONTH:
-                return "yyyyMM";
-            case YEAR:
-                return "yyyy";
-            default:
-                return null;
-        }
+    private String getLineName(int first, int last) {
+        return String.format("%s_%s",
+                mLineNameDateFormat.format(mTrack.getTime(first)),
+                mLineNameDateFormat.format(mTrack.getTime(last)));
     }
 
-    private String getPlacemarkDescription(File file, PhotoInfo photoInfo, Date exifDate) throws IOException {
-        GpsDirectory gpsDirectory = photoInfo.getGpsDirectory();
-        GpsDescriptor gpsDescriptor = null;
-        if (gpsDirectory != null) {
-            gpsDescriptor = new GpsDescriptor(gpsDirectory);
-        }
-
-        String desc = "";
-        switch (mProfileDescription.getMode()) {
-            case CUSTOM:
-                desc = mProfileDescription.getCustomValue();
-                break;
-
-            case EXTERNAL:
-                desc = getExternalDescription(file);
-                break;
-
-            case NONE:
-                //Do nothing
-                break;
-
-            case STATIC:
-                desc = getStaticDescription();
-                break;
+    /**
+     * @return a digest of every setting that affects the content of a
+     * placemark, a manifest with another signature can not be reused
+     */
+    private String getManifestSignature() {
+        Gson gson = new Gson();
+        String signature = String.join("\n",
+                mProfileSource.getDir().getAbsolutePath(),
+                String.valueOf(mProfileSource.isIncludeNullCoordinate()),
+                gson.toJson(mProfileFolder),
+                gson.toJson(mProfilePlacemark),
+                gson.toJson(mProfileDescription),
+                gson.toJson(mProfilePhoto),
+                String.valueOf(mOptions.getDefaultLat()),
+                String.valueOf(mOptions.getDefaultLon()),
+                mOptions.getImageId().name(),
+                Locale.getDefault().toLanguageTag(),
+                TimeZone.getDefault().getID()
+        );
+
+        if (mTrackLog != null) {
+            signature = String.join("\n",
+                    signature,
+                    mProfileSource.getTrackLogDir().getAbsolutePath(),
+                    String.valueOf(mProfileSource.getTrackLogOffset()),
+                    String.valueOf(mTrackLog.size()));
         }
 
-        if (mProfileDescription.getMode() != ProfileDescription.DescriptionMode.NONE) {
-            if (StringUtils.containsIgnoreCase(desc, DescriptionSegment.PHOTO.toString())) {
-                desc = StringUtils.replace(desc, DescriptionSegment.PHOTO.toString(), getDescPhoto(file, photoInfo.getOrientation()));
-            }
-
-            desc = StringUtils.replace(desc, DescriptionSegment.FILENAME.toString(), file.getName());
-            desc = StringUtils.replace(desc, DescriptionSegment.DATE.toString(), mDateFormatDate.format(exifDate));
-
-            if (gpsDirectory != null && gpsDescriptor != null) {
-                desc = StringUtils.replace(desc, DescriptionSegment.ALTITUDE.toString(), gpsDescriptor.getGpsAltitudeDescription());
-                desc = StringUtils.replace(desc, DescriptionSegment.COORDINATE.toString(), gpsDescriptor.getDegreesMinutesSecondsDescription());
-
-                String bearing = gpsDescriptor.getGpsDirectionDescription(GpsDirectory.TAG_DEST_BEARING);
-                desc = StringUtils.replace(desc, DescriptionSegment.BEARING.toString(), bearing == null ? "" : bearing);
-            } else {
-                desc = StringUtils.replace(desc, DescriptionSegment.ALTITUDE.toString(), "");
-                desc = StringUtils.replace(desc, DescriptionSegment.COORDINATE.toString(), "");
-                desc = StringUtils.replace(desc, DescriptionSegment.BEARING.toString(), "");
-            }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(signature.getBytes(StandardCharsets.UTF_8));
 
-            desc = getSafeXmlString(desc);
+            return String.format("%040x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException ex) {
+            return signature;
         }
-
-        return desc;
     }
 
-    private String getPlacemarkName(File file, Date exifDate) {
+    private String getPlacemarkName(File file, long exifDate) {
         String name;
 
         switch (mProfilePlacemark.getNameBy()) {
             case DATE:
-                try {
-                    name = mProfilePlacemark.getDateFormat().format(exifDate);
-                } catch (IllegalArgumentException ex) {
-                    name = "invalid exif date";
-                } catch (NullPointerException ex) {
+                if (exifDate == Long.MIN_VALUE) {
                     name = "invalid exif date";
                     logError(String.format("E011 %s", file.getAbsolutePath()));
+                } else {
+                    try {
+                        name = mProfilePlacemark.getDateFormat().format(exifDate);
+                    } catch (DateTimeException ex) {
+                        name = "invalid exif date";
+                    }
                 }
                 break;
 
@@ -801,15 +834,64 @@ public class Operation implements Runnable {
         return name;
     }
 
-    private String getSafeXmlString(String s) {
-        if (StringUtils.containsAny(s, '<', '>', '&')) {
-            s = new StringBuilder("<![CDATA[").append(s).append("]]>").toString();
+    /**
+     * @return the ring of the polygon of the folder, its concave ring if it
+     * has one, else its convex hull
+     */
+    private double[][] getPolygonRing(FolderNode folder, Map<FolderNode, double[][]> concaveRings) {
+        double[][] ring = concaveRings.get(folder);
+
+        return ring != null ? ring : folder.getConvexHull().getRing();
+    }
+
+    /**
+     * Thread safe
+     *
+     * @return the thumbnail stored in the KMZ being replaced or null
+     */
+    private byte[] getPreviousThumbnail(String imageId) {
+        if (mPreviousKmz != null) {
+            ZipEntry entry = mPreviousKmz.getEntry(KmzWriter.getThumbnailEntry(imageId));
+            if (entry != null) {
+                try (InputStream inputStream = mPreviousKmz.getInputStream(entry)) {
+                    return IOUtils.toByteArray(inputStream);
+                } catch (IOException ex) {
+                    //nvm, it will be recreated
+                }
+            }
         }
 
-        return s;
+        return null;
     }
 
+    /**
+     * @return the unit of the period, or null to not split
+     */
+    private ChronoUnit getSplitUnit(ProfilePath.SplitBy splitBy) {
+        switch (splitBy) {
+            case HOUR:
+                return ChronoUnit.HOURS;
+            case DAY:
+                return ChronoUnit.DAYS;
+            case WEEK:
+                return ChronoUnit.WEEKS;
+            case MONTH:
+                return ChronoUnit.MONTHS;
+            case YEAR:
+                return ChronoUnit.YEARS;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Thread safe, the description is built once.
+     */
     private String getStaticDescription() {
+        if (mStaticDescription != null) {
+            return mStaticDescription;
+        }
+
         StringBuilder builder = new StringBuilder();
 
         if (mProfileDescription.hasPhoto()) {
@@ -836,64 +918,570 @@ public class Operation implements Runnable {
             builder.append(DescriptionSegment.BEARING.toHtml());
         }
 
-        return builder.toString();
-    }
+        mStaticDescription = builder.toString();
 
-    private boolean isUsingThumbnails() {
-        return mProfilePlacemark.isSymbolAsPhoto() || mProfilePhoto.getReference() == ProfilePhoto.Reference.THUMBNAIL;
+        return mStaticDescription;
     }
 
-    private void saveToFile() {
-        mListener.onOperationLog("");
-        List keys = new ArrayList(mRootFolders.keySet());
-        Collections.sort(keys);
+    /**
+     * Pins share one style, photos get one per distinct thumbnail. The
+     * styles are written to the document the first time they are used,
+     * unless the placemarks are tiled, then every tile writes the styles it
+     * needs.
+     *
+     * @return the index of the style of the placemark
+     */
+    private int getStyle(String imageId) throws IOException {
+        String key = mProfilePlacemark.isSymbolAsPhoto() ? imageId : "pin";
+        Integer style = mStyles.get(key);
+        if (style == null) {
+            style = mStyleKeys.size();
+            mStyleKeys.add(key);
+            mStyles.put(key, style);
+
+            if (!mProfilePlacemark.isTiled()) {
+                writeStyles(mKmlWriter, style);
+            }
+        }
 
-        keys.stream().forEach((key) -> {
-            mRootFolder.getFeature().add(mRootFolders.get((String) key));
-        });
+        return style;
+    }
 
-        if (mPathFolder != null && !mPathFolder.getFeature().isEmpty()) {
-            mRootFolder.getFeature().add(mPathFolder);
-        }
+    private String getStyleMapId(int style) {
+        return String.format("m_%s", mStyleKeys.get(style));
+    }
 
-        if (mPathGapFolder != null && !mPathGapFolder.getFeature().isEmpty()) {
-            mRootFolder.getFeature().add(mPathGapFolder);
+    private void loadManifest() {
+        if (mOptions.isIncremental()) {
+            File file = new File(mDestinationFile.getParentFile(), String.format(".%s.manifest", mDestinationFile.getName()));
+            mManifest = new Manifest(file, getManifestSignature());
+            try {
+                mManifest.load();
+                mManifest.open();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to open manifest", ex);
+                try {
+                    mManifest.close();
+                } catch (IOException closeEx) {
+                    //nvm
+                }
+                mManifest = null;
+            }
         }
+    }
 
-        if (isUsingThumbnails()) {
-            mListener.onOperationLog("\n" + String.format(mBundle.getString("stored_thumbnails"), mThumbsDir.getAbsolutePath()));
-        }
+    private void loadMetadataCache() {
+        if (mOptions.isMetadataCache()) {
+            mMetadataCache = new MetadataCache(new File(ProfileManager.getInstance().getDirectory(), "metadata.cache"));
+            try {
+                mMetadataCache.load();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to load metadata cache", ex);
+            }
+        }
+    }
+
+    private void loadTrackLog() {
+        if (mProfileSource.isTrackLog()) {
+            long startTime = System.currentTimeMillis();
+            File dir = mProfileSource.getTrackLogDir();
+            mTrackLog = new TrackLog(mProfileSource.getTrackLogOffset() * 1000L);
+            try {
+                int numOfFiles = mTrackLog.load(dir);
+                mListener.onOperationLog(String.format(mBundle.getString("track_log_count"), mTrackLog.size(), numOfFiles, System.currentTimeMillis() - startTime));
+            } catch (IOException ex) {
+                logError(String.format("E000 %s", dir.getAbsolutePath()));
+            } finally {
+                for (String error : mTrackLog.getErrors()) {
+                    logError(error);
+                }
+            }
+        }
+    }
+
+    private void logKml(File kmlFile) throws IOException {
+        mListener.onOperationLog("\n");
+
+        try (BufferedReader reader = Files.newBufferedReader(kmlFile.toPath(), StandardCharsets.UTF_8)) {
+            StringBuilder builder = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (builder.length() > 0) {
+                    builder.append("\n");
+                }
+                builder.append(line);
+
+                if (builder.length() > 1 << 16) {
+                    mListener.onOperationLog(builder.toString());
+                    builder.setLength(0);
+                }
+            }
+
+            if (builder.length() > 0) {
+                mListener.onOperationLog(builder.toString());
+            }
+        }
+
+        mListener.onOperationLog("\n");
+    }
+
+    private boolean isDescriptionPhoto() {
+        switch (mProfileDescription.getMode()) {
+            case CUSTOM:
+                return StringUtils.containsIgnoreCase(mProfileDescription.getCustomValue(), DescriptionSegment.PHOTO.toString());
+
+            case EXTERNAL:
+                return true;
+
+            case STATIC:
+                return mProfileDescription.hasPhoto();
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the files should be processed while the source
+     * directory is scanned
+     */
+    private boolean isStreaming() {
+        return mOptions.isStreaming() && mProfileSource.getDir().isDirectory();
+    }
+
+    private boolean isUsingThumbnails() {
+        return mProfilePlacemark.isSymbolAsPhoto() || mProfilePhoto.getReference() == ProfilePhoto.Reference.THUMBNAIL;
+    }
+
+    private void openDocument() throws IOException {
+        if (mKmz) {
+            mOutputFile = new File(mDestinationFile.getParentFile(), String.format(".%s.kml.tmp", mDestinationFile.getName()));
+            mKmzFile = new File(mDestinationFile.getParentFile(), String.format(".%s.tmp", mDestinationFile.getName()));
+            mKmzWriter = new KmzWriter(mKmzFile);
+
+            if (mDestinationFile.isFile()) {
+                try {
+                    mPreviousKmz = new ZipFile(mDestinationFile);
+                } catch (IOException ex) {
+                    //nvm, no thumbnails to reuse
+                }
+            }
+        } else {
+            mOutputFile = new File(mDestinationFile.getParentFile(), String.format(".%s.tmp", mDestinationFile.getName()));
+        }
+
+        mKmlWriter = new KmlWriter(new BufferedOutputStream(Files.newOutputStream(mOutputFile.toPath()), 1 << 16));
+        mPlacemarkSpool = new PlacemarkSpool();
+
+        mKmlWriter.startKml();
+        mKmlWriter.start("Document")
+                .element("open", true);
+    }
+
+    private void process(String startDate) {
+        mRootFolder = new FolderNode(mProfileFolder.getRootName());
+        mRootFolder.setOpen(true);
+
+        String href = "<a href=\"https://trixon.se/mapollage/\">Mapollage</a>";
+        String description = String.format("<p>%s %s, %s</p>%s",
+                Dict.MADE_WITH.toString(),
+                href,
+                startDate,
+                mProfileFolder.getRootDescription().replaceAll("\\n", "<br />"));
+        mRootFolder.setDescription(description);
+
+        mListener.onOperationProcessingStarted();
+
+        boolean streaming = isStreaming();
+        DirectoryScanner directoryScanner = null;
+        if (streaming) {
+            mListener.onOperationLog("");
+            mListener.onOperationLog(Dict.GENERATING_FILELIST.toString());
+            directoryScanner = new DirectoryScanner(mProfileSource.getPathMatcher(), mProfileSource.getDir(), this);
+        } else {
+            try {
+                mInterrupted = !generateFileList();
+            } catch (IOException ex) {
+                logError(ex.getMessage());
+            }
+        }
+
+        if (!mInterrupted && (streaming || !mFiles.isEmpty())) {
+            if (isUsingThumbnails() && !mKmz) {
+                mThumbsDir = new File(mDestinationFile.getParent() + String.format("/%s-thumbnails", FilenameUtils.getBaseName(mDestinationFile.getAbsolutePath())));
+                try {
+                    FileUtils.forceMkdir(mThumbsDir);
+                } catch (IOException ex) {
+                    logError(String.format("E000 %s", ex.getMessage()));
+                }
+
+                if (!Files.isWritable(mThumbsDir.toPath())) {
+                    mListener.onOperationLog(String.format(mBundle.getString("insufficient_privileges"), mDestinationFile.getAbsolutePath()));
+                    mInterrupted = true;
+                }
+            }
+
+            mPlacemarkFile = mDestinationFile;
+            if (mProfilePlacemark.isTiled() && !mKmz) {
+                mTilesDir = new File(mDestinationFile.getParent() + String.format("/%s-tiles", FilenameUtils.getBaseName(mDestinationFile.getAbsolutePath())));
+                mPlacemarkFile = new File(mTilesDir, TileWriter.getTileName(TileWriter.ROOT_KEY));
+                try {
+                    FileUtils.forceMkdir(mTilesDir);
+                } catch (IOException ex) {
+                    logError(String.format("E000 %s", ex.getMessage()));
+                }
+
+                if (!Files.isWritable(mTilesDir.toPath())) {
+                    mListener.onOperationLog(String.format(mBundle.getString("insufficient_privileges"), mDestinationFile.getAbsolutePath()));
+                    mInterrupted = true;
+                }
+            }
+
+            if (!streaming) {
+                mListener.onOperationLog(String.format(mBundle.getString("found_count"), mNumOfFiles));
+                mListener.onOperationLog("");
+            }
+
+            if (!mInterrupted) {
+                loadTrackLog();
+                loadMetadataCache();
+                loadManifest();
+                try {
+                    openDocument();
+                    if (streaming) {
+                        processFileQueue(directoryScanner);
+                    } else {
+                        Iterator<File> iterator = mFiles.iterator();
+                        processFiles(() -> iterator.hasNext() ? iterator.next() : null);
+                    }
+
+                    if (mManifest != null) {
+                        mListener.onOperationLog(String.format(mBundle.getString("reused_count"), mNumOfReused));
+                    }
+
+                    if (mTrackLog != null) {
+                        mListener.onOperationLog(String.format(mBundle.getString("track_log_located"), mNumOfTrackLogged));
+                    }
+                } catch (IOException ex) {
+                    mListener.onOperationFailed(ex.getLocalizedMessage());
+                    return;
+                } finally {
+                    saveMetadataCache();
+                }
+            }
+        }
+
+        if (mInterrupted) {
+            String status = Dict.TASK_ABORTED.toString();
+            mListener.onOperationLog("\n" + status);
+            mListener.onOperationInterrupted();
+        } else if (mNumOfFiles > 0) {
+            saveToFile();
+            mProfile.setLastRun(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Runs the scan while the files are processed.
+     */
+    private void processFileQueue(DirectoryScanner directoryScanner) throws IOException {
+        try (FileQueue fileQueue = new FileQueue(FILE_QUEUE_CAPACITY)) {
+            fileQueue.start(directoryScanner, mOptions.getThreads());
+            processFiles(() -> {
+                File file = fileQueue.take();
+                mNumOfFiles = fileQueue.getCount();
+
+                return file;
+            });
+
+            if (!mInterrupted) {
+                try {
+                    fileQueue.await();
+                } catch (IOException ex) {
+                    logError(String.format("E000 %s", mProfileSource.getDir().getAbsolutePath()));
+                }
+            }
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+        } finally {
+            for (String error : directoryScanner.getErrors()) {
+                logError(error);
+            }
+        }
+
+        if (mCancellationToken.isCancelled()) {
+            mInterrupted = true;
+        }
+
+        mListener.onOperationLog("");
+        mListener.onOperationLog(String.format(mBundle.getString("found_count"), mNumOfFiles));
+        if (!mInterrupted && mNumOfFiles == 0) {
+            mListener.onOperationFinished(Dict.FILELIST_EMPTY.toString(), 0);
+        }
+    }
+
+    private void processFiles(FileSource fileSource) throws IOException {
+        int threads = mOptions.getThreads();
+        int maxPending = threads * 4;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ProcessedPhoto>> pending = new ArrayDeque<>(maxPending);
+        int progress = 0;
+
+        try {
+            File next = fileSource.next();
+            while (next != null || !pending.isEmpty()) {
+                while (next != null && pending.size() < maxPending) {
+                    File file = next;
+                    pending.add(executorService.submit(() -> processPhoto(file)));
+                    next = fileSource.next();
+                }
+
+                ProcessedPhoto processedPhoto;
+                try {
+                    processedPhoto = pending.poll().get();
+                } catch (ExecutionException ex) {
+                    logError(String.format("E000 %s", ex.getCause()));
+                    continue;
+                }
+
+                File file = processedPhoto.getFile();
+                mListener.onOperationProgress(file.getAbsolutePath());
+                mListener.onOperationProgress(++progress, mNumOfFiles);
+
+                try {
+                    addPhoto(processedPhoto);
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                } catch (ImageProcessingException ex) {
+                    logError(String.format("E000 %s", ex.getMessage()));
+                } catch (IOException ex) {
+                    logError(String.format("E000 %s", file.getAbsolutePath()));
+                }
+
+                if (mCancellationToken.isCancelled() || Thread.interrupted()) {
+                    mInterrupted = true;
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs on a worker thread, must not touch the document or any other
+     * assembler state.
+     */
+    private ProcessedPhoto processPhoto(File file) {
+        ProcessedPhoto processedPhoto = new ProcessedPhoto(file);
+
+        if (mManifest != null) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                processedPhoto.setFileAttributes(attrs.size(), attrs.lastModifiedTime().toMillis());
+                Manifest.Entry entry = mManifest.get(file, attrs);
+                if (entry != null && reuse(processedPhoto, entry)) {
+                    return processedPhoto;
+                }
+            } catch (IOException ex) {
+                //nvm, process it
+            }
+        }
+
+        PhotoInfo photoInfo = new PhotoInfo(file, mProfileSource.isIncludeNullCoordinate(), mTrackLog);
+        processedPhoto.setPhotoInfo(photoInfo);
+        byte[] cacheData = mMetadataCache == null ? null : mMetadataCache.get(file);
 
         try {
-            StringWriter stringWriter = new StringWriter();
-            mKml.marshal(stringWriter);
-            String kmlString = stringWriter.toString();
+            if (cacheData == null || !photoInfo.initFromCache(cacheData)) {
+                photoInfo.init();
+            }
+
+            if (!photoInfo.hasExif()) {
+                throw new ImageProcessingException(String.format("E010 %s", file.getAbsolutePath()));
+            }
 
-            if (mOptions.isCleanNs2()) {
-                mListener.onOperationLog(mBundle.getString("clean_ns2"));
-                kmlString = StringUtils.replace(kmlString, "xmlns:ns2=", "xmlns=");
-                kmlString = StringUtils.replace(kmlString, "<ns2:", "<");
-                kmlString = StringUtils.replace(kmlString, "</ns2:", "</");
+            boolean hasLocation = photoInfo.hasLocation();
+            processedPhoto.setHasLocation(hasLocation);
+
+            if (hasLocation || mProfileSource.isIncludeNullCoordinate()) {
+                if (isUsingThumbnails()) {
+                    String imageId = photoInfo.getImageId();
+                    processedPhoto.setImageId(imageId);
+
+                    if (mKmz) {
+                        byte[] thumbnail = getPreviousThumbnail(imageId);
+                        if (thumbnail == null) {
+                            thumbnail = photoInfo.createThumbnail();
+                        }
+
+                        CRC32 crc = new CRC32();
+                        crc.update(thumbnail);
+                        processedPhoto.setThumbnail(thumbnail, crc.getValue());
+                    } else {
+                        photoInfo.createThumbnail(new File(mThumbsDir, imageId + ".jpg"));
+                    }
+                }
+
+                if (isDescriptionPhoto()) {
+                    photoInfo.getOriginalDimension();
+                }
             }
+        } catch (ImageProcessingException | IOException ex) {
+            processedPhoto.setException(ex);
+        } finally {
+            if (mMetadataCache != null && photoInfo.isCacheDirty()) {
+                mMetadataCache.put(file, photoInfo.toCacheData());
+            }
+        }
+
+        return processedPhoto;
+    }
+
+    /**
+     * Runs on a worker thread.
+     *
+     * @return true if the output of the previous run could be used for the
+     * photo
+     */
+    private boolean reuse(ProcessedPhoto processedPhoto, Manifest.Entry entry) throws IOException {
+        File file = processedPhoto.getFile();
+        if (getDescriptionHash(file) != entry.getDescriptionHash()) {
+            return false;
+        }
 
-            if (mOptions.isCleanSpace()) {
-                mListener.onOperationLog(mBundle.getString("clean_space"));
-                kmlString = StringUtils.replace(kmlString, "        ", "\t");
-                kmlString = StringUtils.replace(kmlString, "    ", "\t");
+        if (entry.hasPlacemark() && isUsingThumbnails()) {
+            String imageId = entry.getImageId();
+            if (mKmz) {
+                byte[] thumbnail = getPreviousThumbnail(imageId);
+                if (thumbnail == null) {
+                    return false;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(thumbnail);
+                processedPhoto.setThumbnail(thumbnail, crc.getValue());
+            } else if (!new File(mThumbsDir, imageId + ".jpg").isFile()) {
+                return false;
             }
+        }
+
+        processedPhoto.setImageId(entry.getImageId());
+        processedPhoto.setHasLocation(entry.hasLocation());
+        processedPhoto.setManifestEntry(entry, mManifest.readFragment(entry));
+
+        return true;
+    }
+
+    /**
+     * Replaces the manifest and removes the thumbnails that only photos of
+     * the previous run referred to.
+     */
+    private void saveManifest() {
+        try {
+            mManifest.commit();
+
+            if (isUsingThumbnails() && !mKmz) {
+                for (String imageId : mManifest.getUnusedImageIds()) {
+                    Files.deleteIfExists(new File(mThumbsDir, imageId + ".jpg").toPath());
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Unable to save manifest", ex);
+        }
+    }
+
+    private void saveMetadataCache() {
+        if (mMetadataCache != null) {
+            try {
+                mMetadataCache.save();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Unable to save metadata cache", ex);
+            }
+        }
+    }
+
+    private void saveToFile() {
+        mListener.onOperationLog("");
 
-            kmlString = StringUtils.replaceEach(kmlString,
-                    new String[]{"&lt;", "&gt;", "&amp;"},
-                    new String[]{"<", ">", ""});
+        if (isUsingThumbnails() && !mKmz) {
+            mListener.onOperationLog("\n" + String.format(mBundle.getString("stored_thumbnails"), mThumbsDir.getAbsolutePath()));
+        }
 
-            if (mOptions.isLogKml()) {
-                mListener.onOperationLog("\n");
-                mListener.onOperationLog(kmlString);
-                mListener.onOperationLog("\n");
+        try {
+            if (mProfilePlacemark.isCollapse()) {
+                int numOfCollapsed = collapsePlacemarks();
+                mNumOfPlacemarks -= numOfCollapsed;
+                mListener.onOperationLog(String.format(mBundle.getString("collapsed_count"), numOfCollapsed));
             }
 
             mListener.onOperationLog(String.format(Dict.SAVING.toString(), mDestinationFile.getAbsolutePath()));
-            FileUtils.writeStringToFile(mDestinationFile, kmlString, "utf-8");
+            mKmlWriter.start("Folder");
+            writeFolderHeader(mRootFolder);
+
+            if (mProfilePlacemark.isTiled()) {
+                writeTileLink();
+            } else {
+                writeFolderContent(mRootFolder);
+            }
+
+            if (mProfilePath.isDrawPolygon()) {
+                writePolygons();
+            }
+
+            if (mProfilePath.isDrawPath() && mTrack.size() > 1) {
+                writePath();
+            }
+
+            mKmlWriter.endKml();
+            mKmlWriter.close();
+            mKmlWriter = null;
+
+            if (mKmz) {
+                if (mOptions.isLogKml()) {
+                    logKml(mOutputFile);
+                }
+
+                mKmzWriter.putDocument(mOutputFile);
+                if (mProfilePlacemark.isTiled()) {
+                    File tilesDir = Files.createTempDirectory("mapollage").toFile();
+                    try {
+                        for (File tile : writeTiles(tilesDir)) {
+                            mKmzWriter.putFile(tile.getName(), tile);
+                        }
+                    } finally {
+                        FileUtils.deleteQuietly(tilesDir);
+                    }
+                }
+                mKmzWriter.close();
+                mKmzWriter = null;
+
+                if (mPreviousKmz != null) {
+                    mPreviousKmz.close();
+                    mPreviousKmz = null;
+                }
+
+                Files.move(mKmzFile.toPath(), mDestinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                if (mTilesDir != null) {
+                    for (File tile : mTilesDir.listFiles((dir, name) -> name.startsWith(TileWriter.ROOT_KEY) && name.endsWith(".kml"))) {
+                        Files.delete(tile.toPath());
+                    }
+                    writeTiles(mTilesDir);
+                }
+
+                Files.move(mOutputFile.toPath(), mDestinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                if (mOptions.isLogKml()) {
+                    logKml(mDestinationFile);
+                }
+            }
+
+            if (mManifest != null) {
+                saveManifest();
+            }
 
             String files = mBundle.getString("status_files");
             String exif = mBundle.getString("status_exif");
@@ -913,7 +1501,7 @@ public class Operation implements Runnable {
             int leftPad = 8;
             StringBuilder summaryBuilder = new StringBuilder("\n");
 
-            String filesValue = String.valueOf(mFiles.size());
+            String filesValue = String.valueOf(mNumOfFiles);
             summaryBuilder.append(StringUtils.rightPad(files, rightPad)).append(":").append(StringUtils.leftPad(filesValue, leftPad)).append("\n");
 
             String exifValue = String.valueOf(mNumOfExif);
@@ -931,22 +1519,336 @@ public class Operation implements Runnable {
             String timeValue = String.valueOf(Math.round((System.currentTimeMillis() - mStartTime) / 1000.0));
             summaryBuilder.append(StringUtils.rightPad(time, rightPad)).append(":").append(StringUtils.leftPad(timeValue, leftPad)).append(" s").append("\n");
 
-            mListener.onOperationFinished(summaryBuilder.toString(), mFiles.size());
+            mListener.onOperationFinished(summaryBuilder.toString(), mNumOfFiles);
         } catch (IOException ex) {
             mListener.onOperationFailed(ex.getLocalizedMessage());
         }
     }
 
-    private void scanForFolderRemoval(Folder folder) {
-        for (Feature feature : folder.getFeature()) {
-            if (feature instanceof Folder) {
-                Folder subFolder = (Folder) feature;
-                if (subFolder.getFeature().isEmpty()) {
-                    mPolygonRemovals.put(subFolder, folder);
-                } else {
-                    scanForFolderRemoval(subFolder);
+    private void writeFolder(FolderNode folder) throws IOException {
+        mKmlWriter.start("Folder");
+        writeFolderHeader(folder);
+        writeFolderContent(folder);
+        mKmlWriter.end();
+    }
+
+    private void writeFolderContent(FolderNode folder) throws IOException {
+        List<FolderNode> subFolders = folder.getFolders();
+        int subFolderIndex = 0;
+
+        for (int i = 0; i < folder.getPlacemarkCount(); i++) {
+            while (subFolderIndex < subFolders.size() && subFolders.get(subFolderIndex).getPosition() == i) {
+                writeFolder(subFolders.get(subFolderIndex++));
+            }
+
+            mPlacemarkSpool.copyTo(folder.getPlacemark(i), mKmlWriter);
+        }
+
+        while (subFolderIndex < subFolders.size()) {
+            writeFolder(subFolders.get(subFolderIndex++));
+        }
+    }
+
+    private void writeFolderHeader(FolderNode folder) throws IOException {
+        mKmlWriter.element("name", folder.getName());
+        if (folder.isOpen()) {
+            mKmlWriter.element("open", true);
+        }
+
+        if (folder.getDescription() != null) {
+            mKmlWriter.element("description", folder.getDescription());
+        }
+    }
+
+    private void writeIconStyle(KmlWriter writer, String href, double scale) throws IOException {
+        writer.start("IconStyle")
+                .element("scale", scale);
+
+        if (href != null) {
+            writer.start("Icon")
+                    .element("href", href)
+                    .end();
+        }
+
+        writer.end();
+    }
+
+    private void writeLine(String name, String color, int... indices) throws IOException {
+        mKmlWriter.start("Placemark")
+                .element("name", name)
+                .start("Style")
+                .start("LineStyle")
+                .element("color", color)
+                .element("width", mProfilePath.getWidth())
+                .end()
+                .end()
+                .start("LineString")
+                .element("extrude", false)
+                .element("tessellate", true)
+                .start("coordinates");
+
+        for (int index : indices) {
+            mKmlWriter.coordinate(mTrack.getLon(index), mTrack.getLat(index));
+        }
+
+        mKmlWriter.end()
+                .end()
+                .end();
+    }
+
+    /**
+     * Writes the path through the photos in time order, split into segments
+     * by calendar period or by time gap and speed, and the gaps between the
+     * segments.
+     */
+    private void writePath() throws IOException {
+        long startTime = System.currentTimeMillis();
+        mTrack.sort();
+
+        int[] segments;
+        if (mProfilePath.getSplitBy() == ProfilePath.SplitBy.GAP) {
+            segments = mTrack.split(mProfilePath.getSplitGap() * 60000L, mProfilePath.getSplitSpeed() / 3.6);
+        } else {
+            segments = mTrack.split(getSplitUnit(mProfilePath.getSplitBy()));
+        }
+        int numOfSegments = segments.length - 1;
+        int size = mTrack.size();
+
+        boolean hasLines = false;
+        for (int i = 0; i < numOfSegments; i++) {
+            hasLines |= segments[i + 1] - segments[i] > 1;
+        }
+
+        //Add paths
+        int numOfPositions = 0;
+        if (hasLines) {
+            mKmlWriter.start("Folder")
+                    .element("name", Dict.PATH_GFX.toString());
+
+            for (int i = 0; i < numOfSegments; i++) {
+                int first = segments[i];
+                int last = segments[i + 1] - 1;
+                if (last > first) {
+                    int[] indices = mProfilePath.isSimplify()
+                            ? mTrack.simplify(first, last, mProfilePath.getSimplifyTolerance())
+                            : IntStream.rangeClosed(first, last).toArray();
+                    writeLine(getLineName(first, last), "ff0000ff", indices);
+                    numOfPositions += indices.length;
                 }
             }
+
+            mKmlWriter.end();
+        }
+
+        //Add path gap
+        if (numOfSegments > 1) {
+            mKmlWriter.start("Folder")
+                    .element("name", Dict.PATH_GAP_GFX.toString());
+
+            for (int i = 1; i < numOfSegments; i++) {
+                int previousLast = segments[i] - 1;
+                int currentFirst = segments[i];
+
+                writeLine(getLineName(previousLast, currentFirst), "ff00ffff", previousLast, currentFirst);
+            }
+
+            mKmlWriter.end();
+        }
+
+        mListener.onOperationLog(String.format(mBundle.getString("path_count"), numOfPositions, size, System.currentTimeMillis() - startTime));
+    }
+
+    /**
+     * Renders the placemark at its final indentation and appends it to the
+     * spool, the folders are assembled when the document is saved.
+     *
+     * @return the rendered placemark
+     */
+    private byte[] writePlacemark(FolderNode folder, String name, String desc, long exifDate, double lat, double lon, int style) throws IOException {
+        mPlacemarkWriter.setDepth(mProfilePlacemark.isTiled() ? 2 : folder.getDepth() + 3);
+        mPlacemarkWriter.start("Placemark")
+                .element("name", name)
+                .element("open", true);
+
+        if (!StringUtils.isBlank(desc)) {
+            mPlacemarkWriter.element("description", desc);
+        }
+
+        if (mProfilePlacemark.isTimestamp()) {
+            mPlacemarkWriter.start("TimeStamp")
+                    .element("when", mTimeStampDateFormat.format(exifDate))
+                    .end();
+        }
+
+        mPlacemarkWriter.element("styleUrl", "#" + getStyleMapId(style))
+                .start("Point")
+                .start("coordinates")
+                .coordinate(lon, lat, 0)
+                .end()
+                .end()
+                .end()
+                .flush();
+
+        byte[] fragment = mPlacemarkBuffer.toByteArray();
+        folder.addPlacemark(mPlacemarkSpool.add(fragment, lat, lon, style, exifDate));
+        if (mProfilePath.isDrawPolygon()) {
+            folder.getConvexHull().add(lon, lat);
         }
+        mPlacemarkBuffer.reset();
+
+        return fragment;
+    }
+
+    private void writePolygon(String name, double[][] ring) throws IOException {
+        mKmlWriter.start("Placemark")
+                .element("name", name)
+                .start("Style")
+                .start("LineStyle")
+                .element("color", "00000000")
+                .element("width", 0.0)
+                .end()
+                .start("PolyStyle")
+                .element("color", "ccffffff")
+                .element("colorMode", "random")
+                .end()
+                .end()
+                .start("Polygon")
+                .start("outerBoundaryIs")
+                .start("LinearRing")
+                .start("coordinates");
+
+        for (int i = 0; i < ring[0].length; i++) {
+            mKmlWriter.coordinate(ring[0][i], ring[1][i]);
+        }
+
+        mKmlWriter.end()
+                .end()
+                .end()
+                .end()
+                .end();
+    }
+
+    private void writePolygonFolder(FolderNode folder, Set<FolderNode> nonEmptyFolders, Map<FolderNode, double[][]> concaveRings) throws IOException {
+        for (FolderNode subFolder : folder.getFolders()) {
+            if (nonEmptyFolders.contains(subFolder)) {
+                mKmlWriter.start("Folder")
+                        .element("name", subFolder.getName())
+                        .element("open", true);
+                writePolygonFolder(subFolder, nonEmptyFolders, concaveRings);
+                mKmlWriter.end();
+            }
+
+            if (subFolder.getConvexHull().isPolygon()) {
+                writePolygon(subFolder.getName(), getPolygonRing(subFolder, concaveRings));
+            }
+        }
+    }
+
+    private void writePolygons() throws IOException {
+        HashSet<FolderNode> nonEmptyFolders = new HashSet<>();
+        addConvexHulls(mRootFolder, nonEmptyFolders);
+        HashMap<FolderNode, double[][]> concaveRings = new HashMap<>();
+        if (mProfilePath.getPolygonShape() == ProfilePath.PolygonShape.CONCAVE) {
+            addConcaveRings(mRootFolder, concaveRings);
+        }
+
+        mKmlWriter.start("Folder")
+                .element("name", Dict.POLYGON.toString())
+                .element("open", false);
+
+        writePolygonFolder(mRootFolder, nonEmptyFolders, concaveRings);
+
+        if (mRootFolder.getConvexHull().isPolygon()) {
+            writePolygon(Dict.POLYGON.toString(), getPolygonRing(mRootFolder, concaveRings));
+        }
+
+        mKmlWriter.end();
+    }
+
+    /**
+     * Writes the styles of a style map, pins share one style map and photos
+     * get one per distinct thumbnail. Thread safe once all photos are
+     * processed.
+     */
+    private void writeStyles(KmlWriter writer, int style) throws IOException {
+        String key = mStyleKeys.get(style);
+        String styleNormalId = String.format("s_%s", key);
+        String styleHighlightId = String.format("s_%s_hl", key);
+
+        String href = null;
+        double normalScale = 1.0;
+        double highlightScale = 1.1;
+
+        if (mProfilePlacemark.isSymbolAsPhoto()) {
+            href = mKmz ? KmzWriter.getThumbnailEntry(key) : String.format("%s%s/%s.jpg", mTilesDir != null ? "../" : "", mThumbsDir.getName(), key);
+            normalScale = mProfilePlacemark.getScale();
+            highlightScale = mProfilePlacemark.getZoom() * mProfilePlacemark.getScale();
+        }
+
+        writer.start("Style", styleNormalId);
+        writeIconStyle(writer, href, normalScale);
+        writer.end();
+
+        writer.start("Style", styleHighlightId);
+        writeIconStyle(writer, href, highlightScale);
+        writer.start("BalloonStyle")
+                //aabbggrr
+                .element("bgColor", "ff272420")
+                .element("textColor", "ffeeeeee")
+                .element("text", "$[description]")
+                .end()
+                .end();
+
+        writer.start("StyleMap", getStyleMapId(style))
+                .start("Pair")
+                .element("key", "normal")
+                .element("styleUrl", "#" + styleNormalId)
+                .end()
+                .start("Pair")
+                .element("key", "highlight")
+                .element("styleUrl", "#" + styleHighlightId)
+                .end()
+                .end();
+    }
+
+    private void writeTileLink() throws IOException {
+        String href = TileWriter.getTileName(TileWriter.ROOT_KEY);
+        if (mTilesDir != null) {
+            href = String.format("%s/%s", mTilesDir.getName(), href);
+        }
+
+        mKmlWriter.start("NetworkLink")
+                .element("name", Dict.PLACEMARK.toString())
+                .start("Link")
+                .element("href", href)
+                .end()
+                .end();
+    }
+
+    private List<File> writeTiles(File dir) throws IOException {
+        TileWriter tileWriter = new TileWriter(mPlacemarkSpool, dir, new TileWriter.StyleWriter() {
+            @Override
+            public String getStyleMapId(int style) {
+                return Operation.this.getStyleMapId(style);
+            }
+
+            @Override
+            public void write(KmlWriter writer, int style) throws IOException {
+                writeStyles(writer, style);
+            }
+        }, mProfilePlacemark.isCluster());
+
+        return tileWriter.write(mOptions.getThreads());
+    }
+
+    /**
+     * The files to process, in the order their placemarks are added.
+     */
+    private interface FileSource {
+
+        /**
+         * @return the next file, or null when there are no more
+         */
+        File next() throws InterruptedException;
     }
 }
@@ -25,23 +25,31 @@ import java.util.prefs.Preferences;
 public class Options {
 
     public static final String KEY_AUTO_OPEN = "auto_open";
-    public static final String KEY_CLEAN_NS2 = "clean_ns2";
-    public static final String KEY_CLEAN_SPACE = "clean_space";
     public static final String KEY_DEFAULT_LAT = "deflat";
     public static final String KEY_DEFAULT_LON = "deflon";
+    public static final String KEY_EMBEDDED_THUMBNAIL = "embedded_thumbnail";
+    public static final String KEY_IMAGE_ID = "image_id";
+    public static final String KEY_INCREMENTAL = "incremental";
     public static final String KEY_LOCALE = "locale";
     public static final String KEY_LOG_KML = "log_kml";
+    public static final String KEY_METADATA_CACHE = "metadata_cache";
+    public static final String KEY_STREAMING = "streaming";
+    public static final String KEY_THREADS = "threads";
     public static final String KEY_THUMBNAIL_BORDER_SIZE = "thumbnail_border_size";
     public static final String KEY_THUMBNAIL_SIZE = "thumbnail_size";
     public static final String KEY_WORD_WRAP = "word_wrap";
-    private static final boolean DEFAULT_CLEAN_NS2 = true;
-    private static final boolean DEFAULT_CLEAN_SPACE = true;
+    private static final boolean DEFAULT_EMBEDDED_THUMBNAIL = true;
+    private static final ImageId DEFAULT_IMAGE_ID = ImageId.CHECKSUM;
+    private static final boolean DEFAULT_INCREMENTAL = false;
     private static final Locale DEFAULT_LOCALE = Locale.getDefault();
     private static final boolean DEFAULT_LOG_KML = false;
+    private static final boolean DEFAULT_METADATA_CACHE = true;
+    private static final boolean DEFAULT_STREAMING = false;
     private static final boolean DEFAULT_WORD_WRAP = false;
     private final boolean DEFAULT_AUTO_OPEN = true;
     private final Double DEFAULT_LAT = 57.6;
     private final Double DEFAULT_LON = 11.3;
+    private final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
     private final int DEFAULT_THUMBNAIL_BORDER_SIZE = 3;
     private final int DEFAULT_THUMBNAIL_SIZE = 1000;
     private final Preferences mPreferences = Preferences.userNodeForPackage(Options.class);
@@ -61,6 +69,14 @@ public class Options {
         return mPreferences.getDouble(KEY_DEFAULT_LON, DEFAULT_LON);
     }
 
+    public ImageId getImageId() {
+        try {
+            return ImageId.valueOf(mPreferences.get(KEY_IMAGE_ID, DEFAULT_IMAGE_ID.name()));
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_IMAGE_ID;
+        }
+    }
+
     public Locale getLocale() {
         return Locale.forLanguageTag(mPreferences.get(KEY_LOCALE, DEFAULT_LOCALE.toLanguageTag()));
     }
@@ -69,6 +85,10 @@ public class Options {
         return mPreferences;
     }
 
+    public int getThreads() {
+        return Math.max(1, mPreferences.getInt(KEY_THREADS, DEFAULT_THREADS));
+    }
+
     public int getThumbnailBorderSize() {
         return mPreferences.getInt(KEY_THUMBNAIL_BORDER_SIZE, DEFAULT_THUMBNAIL_BORDER_SIZE);
     }
@@ -81,32 +101,32 @@ public class Options {
         return mPreferences.getBoolean(KEY_AUTO_OPEN, DEFAULT_AUTO_OPEN);
     }
 
-    public boolean isCleanNs2() {
-        return mPreferences.getBoolean(KEY_CLEAN_NS2, DEFAULT_CLEAN_NS2);
+    public boolean isEmbeddedThumbnail() {
+        return mPreferences.getBoolean(KEY_EMBEDDED_THUMBNAIL, DEFAULT_EMBEDDED_THUMBNAIL);
     }
 
-    public boolean isCleanSpace() {
-        return mPreferences.getBoolean(KEY_CLEAN_SPACE, DEFAULT_CLEAN_SPACE);
+    public boolean isIncremental() {
+        return mPreferences.getBoolean(KEY_INCREMENTAL, DEFAULT_INCREMENTAL);
     }
 
     public boolean isLogKml() {
         return mPreferences.getBoolean(KEY_LOG_KML, DEFAULT_LOG_KML);
     }
 
-    public boolean isWordWrap() {
-        return mPreferences.getBoolean(KEY_WORD_WRAP, DEFAULT_WORD_WRAP);
+    public boolean isMetadataCache() {
+        return mPreferences.getBoolean(KEY_METADATA_CACHE, DEFAULT_METADATA_CACHE);
     }
 
-    public void setAutoOpen(boolean value) {
-        mPreferences.putBoolean(KEY_AUTO_OPEN, value);
+    public boolean isStreaming() {
+        return mPreferences.getBoolean(KEY_STREAMING, DEFAULT_STREAMING);
     }
 
-    public void setCleanNs2(boolean value) {
-        mPreferences.putBoolean(KEY_CLEAN_NS2, value);
+    public boolean isWordWrap() {
+        return mPreferences.getBoolean(KEY_WORD_WRAP, DEFAULT_WORD_WRAP);
     }
 
-    public void setCleanSpace(boolean value) {
-        mPreferences.putBoolean(KEY_CLEAN_SPACE, value);
+    public void setAutoOpen(boolean value) {
+        mPreferences.putBoolean(KEY_AUTO_OPEN, value);
     }
 
     public void setDefaultLat(Double value) {
@@ -117,6 +137,18 @@ public class Options {
         mPreferences.putDouble(KEY_DEFAULT_LON, value);
     }
 
+    public void setEmbeddedThumbnail(boolean value) {
+        mPreferences.putBoolean(KEY_EMBEDDED_THUMBNAIL, value);
+    }
+
+    public void setImageId(ImageId imageId) {
+        mPreferences.put(KEY_IMAGE_ID, imageId.name());
+    }
+
+    public void setIncremental(boolean value) {
+        mPreferences.putBoolean(KEY_INCREMENTAL, value);
+    }
+
     public void setLocale(Locale locale) {
         mPreferences.put(KEY_LOCALE, locale.toLanguageTag());
     }
@@ -125,6 +157,18 @@ public class Options {
         mPreferences.putBoolean(KEY_LOG_KML, value);
     }
 
+    public void setMetadataCache(boolean value) {
+        mPreferences.putBoolean(KEY_METADATA_CACHE, value);
+    }
+
+    public void setStreaming(boolean value) {
+        mPreferences.putBoolean(KEY_STREAMING, value);
+    }
+
+    public void setThreads(int threads) {
+        mPreferences.putInt(KEY_THREADS, threads);
+    }
+
     public void setThumbnailBorderSize(int size) {
         mPreferences.putInt(KEY_THUMBNAIL_BORDER_SIZE, size);
     }
@@ -137,6 +181,17 @@ public class Options {
         mPreferences.putBoolean(KEY_WORD_WRAP, value);
     }
 
+    public enum ImageId {
+        /**
+         * CRC32 of the whole file
+         */
+        CHECKSUM,
+        /**
+         * 64 bit hash of the first and last 64 KiB and the file size
+         */
+        HEADER;
+    }
+
     private static class Holder {
 
         private static final Options INSTANCE = new Options();
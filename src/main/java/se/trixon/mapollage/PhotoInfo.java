@@ -17,25 +17,46 @@ package se.trixon.mapollage;
 
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
 import com.drew.lang.GeoLocation;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.MetadataException;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
+import com.drew.metadata.exif.GpsDescriptor;
 import com.drew.metadata.exif.GpsDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.TimeZone;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.commons.io.FileUtils;
 import se.trixon.almond.util.GraphicsHelper;
-import se.trixon.almond.util.ImageScaler;
 
 /**
  *
@@ -43,77 +64,123 @@ import se.trixon.almond.util.ImageScaler;
  */
 public class PhotoInfo {
 
-    private ExifSubIFDDirectory mExifDirectory;
+    private static final int CACHE_FORMAT = 3;
+    private static final int HEADER_ID_CHUNK_SIZE = 64 * 1024;
+    private static final int JPEG_HEADER_CHUNK_SIZE = 64 * 1024;
+    private static final int JPEG_HEADER_MAX_SIZE = 16 * 1024 * 1024;
+
+    private boolean mCacheDirty;
+    private long mDate = Long.MIN_VALUE;
     private final File mFile;
     private final double mFormat = 1000000;
     private GeoLocation mGeoLocation;
-    private GpsDirectory mGpsDirectory;
-    private final ImageScaler mImageScaler = ImageScaler.getInstance();
+    private int mExifThumbnailLength;
+    private int mExifThumbnailOffset;
+    private String mGpsAltitude;
+    private String mGpsBearing;
+    private String mGpsCoordinate;
+    private boolean mHasExif;
+    private boolean mHasGps;
+    private String mImageId;
+    private Options.ImageId mImageIdScheme;
     private final boolean mIncludeNullCoordinate;
-    private Metadata mMetadata;
     private final Options mOptions = Options.getInstance();
     private int mOrientation;
     private Dimension mOriginalDimension = null;
+    private GeoLocation mRawGeoLocation;
+    private final TrackLog mTrackLog;
+    private boolean mTrackLogLocation;
 
     public PhotoInfo(File file, boolean includeNullCoordinate) {
+        this(file, includeNullCoordinate, null);
+    }
+
+    PhotoInfo(File file, boolean includeNullCoordinate, TrackLog trackLog) {
         mFile = file;
         mIncludeNullCoordinate = includeNullCoordinate;
+        mTrackLog = trackLog;
     }
 
+    /**
+     * Writes the thumbnail unless the destination exists. It is written to a
+     * temporary file that is moved into place, so concurrent writers of the
+     * same thumbnail and interrupted runs never leave a partial file behind.
+     */
     public void createThumbnail(File dest) throws IOException {
         if (!dest.exists()) {
-            int borderSize = mOptions.getThumbnailBorderSize();
-            int thumbnailSize = mOptions.getThumbnailSize();
-
-            BufferedImage scaledImage = mImageScaler.getScaledImage(mFile, new Dimension(thumbnailSize - borderSize * 2, thumbnailSize - borderSize * 2));
-            scaledImage = GraphicsHelper.rotate(scaledImage, mOrientation);
-
-            int width = scaledImage.getWidth();
-            int height = scaledImage.getHeight();
-            int borderedImageWidth = width + borderSize * 2;
-            int borderedImageHeight = height + borderSize * 2;
-
-            BufferedImage borderedImage = new BufferedImage(borderedImageWidth, borderedImageHeight, BufferedImage.TYPE_3BYTE_BGR);
-
-            Graphics2D g2 = borderedImage.createGraphics();
-            g2.setColor(Color.YELLOW);
-            g2.fillRect(0, 0, borderedImageWidth, borderedImageHeight);
-            g2.drawImage(scaledImage, borderSize, borderSize, width + borderSize, height + borderSize, 0, 0, width, height, Color.YELLOW, null);
+            BufferedImage thumbnail = getThumbnail();
+            File tempFile = null;
 
             try {
-                ImageIO.write(borderedImage, "jpg", dest);
+                tempFile = File.createTempFile(dest.getName() + ".", ".tmp", dest.getParentFile());
+                ImageIO.write(thumbnail, "jpg", tempFile);
+                Files.move(tempFile.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
             } catch (IOException ex) {
-                throw new IOException(String.format("E000 %s", dest.getAbsolutePath()));
+                if (!dest.exists()) {
+                    throw new IOException(String.format("E000 %s", dest.getAbsolutePath()));
+                }
+            } finally {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
             }
         }
     }
 
-    public Date getDate() {
-        Date date;
-
-        if (mExifDirectory.containsTag(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL)) {
-            date = mExifDirectory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL, TimeZone.getDefault());
-        } else {
-            long millis = 0;
-            try {
-                BasicFileAttributes attr = Files.readAttributes(mFile.toPath(), BasicFileAttributes.class);
-                millis = attr.lastModifiedTime().toMillis();
-            } catch (IOException ex) {
-                millis = mFile.lastModified();
-            } finally {
-                date = new Date(millis);
-            }
+    /**
+     * @return the thumbnail encoded as JPEG
+     */
+    public byte[] createThumbnail() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 * 1024);
+        if (!ImageIO.write(getThumbnail(), "jpg", outputStream)) {
+            throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
         }
 
-        return date;
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * @return the time taken in milliseconds since the epoch, or
+     * Long.MIN_VALUE if unknown
+     */
+    public long getDate() {
+        return mDate;
+    }
+
+    public String getGpsAltitudeDescription() {
+        return mGpsAltitude;
+    }
+
+    public String getGpsBearingDescription() {
+        return mGpsBearing;
     }
 
-    public ExifSubIFDDirectory getExifDirectory() {
-        return mExifDirectory;
+    public String getGpsCoordinateDescription() {
+        return mGpsCoordinate;
     }
 
-    public GpsDirectory getGpsDirectory() {
-        return mGpsDirectory;
+    public String getImageId() throws IOException {
+        Options.ImageId imageIdScheme = mOptions.getImageId();
+
+        if (mImageId == null || mImageIdScheme != imageIdScheme) {
+            switch (imageIdScheme) {
+                case CHECKSUM:
+                    mImageId = String.format("%08x", FileUtils.checksumCRC32(mFile));
+                    break;
+
+                case HEADER:
+                    mImageId = getHeaderId();
+                    break;
+
+                default:
+                    throw new AssertionError();
+            }
+
+            mImageIdScheme = imageIdScheme;
+            mCacheDirty = true;
+        }
+
+        return mImageId;
     }
 
     public double getLat() {
@@ -128,10 +195,6 @@ public class PhotoInfo {
         return lonInt / mFormat;
     }
 
-    public Metadata getMetadata() {
-        return mMetadata;
-    }
-
     public int getOrientation() {
         return mOrientation;
     }
@@ -146,6 +209,8 @@ public class PhotoInfo {
 
             if (mOriginalDimension == null) {
                 mOriginalDimension = new Dimension(200, 200);
+            } else {
+                mCacheDirty = true;
             }
         }
 
@@ -153,22 +218,86 @@ public class PhotoInfo {
     }
 
     public boolean hasExif() {
-        return mExifDirectory != null;
+        return mHasExif;
     }
 
     public boolean hasGps() {
-        return hasExif() && mGpsDirectory != null;
+        return hasExif() && mHasGps;
     }
 
+    /**
+     * @return true if the photo has a position of its own or one from the
+     * track log
+     */
+    public boolean hasLocation() {
+        return hasGps() && !isZeroCoordinate() || mTrackLogLocation;
+    }
+
+    /**
+     * Reads the metadata. The segments of a JPEG file are read up to the
+     * compressed data with a single bounded read in most cases, and the
+     * dimension is taken from its frame header, other formats go through
+     * the generic reader.
+     *
+     * @throws ImageProcessingException
+     * @throws IOException
+     */
     public void init() throws ImageProcessingException, IOException {
         try {
-            mMetadata = ImageMetadataReader.readMetadata(mFile);
-            mExifDirectory = mMetadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
-            mGpsDirectory = mMetadata.getFirstDirectoryOfType(GpsDirectory.class);
-            mGeoLocation = getGeoLocation();
+            Metadata metadata;
+            byte[] jpegHeader = readJpegHeader();
+            if (jpegHeader != null) {
+                metadata = JpegMetadataReader.readMetadata(new ByteArrayInputStream(jpegHeader));
+            } else {
+                metadata = ImageMetadataReader.readMetadata(mFile);
+            }
+            ExifSubIFDDirectory exifDirectory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+            GpsDirectory gpsDirectory = metadata.getFirstDirectoryOfType(GpsDirectory.class);
+
+            mHasExif = exifDirectory != null;
+            mHasGps = gpsDirectory != null;
+            mCacheDirty = true;
+
+            if (mHasExif) {
+                if (exifDirectory.containsTag(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL)) {
+                    Date date = exifDirectory.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL, TimeZone.getDefault());
+                    mDate = date == null ? Long.MIN_VALUE : date.getTime();
+                } else {
+                    mDate = getLastModified();
+                }
+            }
+
+            if (mHasGps) {
+                mRawGeoLocation = gpsDirectory.getGeoLocation();
+                GpsDescriptor gpsDescriptor = new GpsDescriptor(gpsDirectory);
+                mGpsAltitude = gpsDescriptor.getGpsAltitudeDescription();
+                mGpsCoordinate = gpsDescriptor.getDegreesMinutesSecondsDescription();
+                mGpsBearing = gpsDescriptor.getGpsDirectionDescription(GpsDirectory.TAG_DEST_BEARING);
+            }
+
+            ExifThumbnailDirectory thumbnailDirectory = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+            if (thumbnailDirectory != null
+                    && thumbnailDirectory.containsTag(ExifThumbnailDirectory.TAG_THUMBNAIL_OFFSET)
+                    && thumbnailDirectory.containsTag(ExifThumbnailDirectory.TAG_THUMBNAIL_LENGTH)) {
+                mExifThumbnailOffset = thumbnailDirectory.getInteger(ExifThumbnailDirectory.TAG_THUMBNAIL_OFFSET);
+                mExifThumbnailLength = thumbnailDirectory.getInteger(ExifThumbnailDirectory.TAG_THUMBNAIL_LENGTH);
+            }
+
+            JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+            if (jpegDirectory != null) {
+                try {
+                    int width = jpegDirectory.getImageWidth();
+                    int height = jpegDirectory.getImageHeight();
+                    if (width > 0 && height > 0) {
+                        mOriginalDimension = new Dimension(width, height);
+                    }
+                } catch (MetadataException ex) {
+                    //leave it to getOriginalDimension()
+                }
+            }
 
             try {
-                ExifIFD0Directory rotationDirectory = mMetadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+                ExifIFD0Directory rotationDirectory = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
                 mOrientation = rotationDirectory.getInt(ExifSubIFDDirectory.TAG_ORIENTATION);
             } catch (MetadataException | NullPointerException ex) {
                 mOrientation = 1;
@@ -176,31 +305,151 @@ public class PhotoInfo {
         } catch (IOException ex) {
             throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
         }
+
+        mGeoLocation = getGeoLocation();
+    }
+
+    /**
+     * Restores the values of a previous {@link #init()} from the metadata
+     * cache.
+     *
+     * @param data as returned by {@link #toCacheData()}
+     * @return false if the data could not be used, {@link #init()} has to be
+     * called instead
+     * @throws ImageProcessingException
+     */
+    public boolean initFromCache(byte[] data) throws ImageProcessingException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (input.readInt() != CACHE_FORMAT) {
+                return false;
+            }
+
+            mHasExif = input.readBoolean();
+            mHasGps = input.readBoolean();
+            mDate = input.readLong();
+            if (input.readBoolean()) {
+                mRawGeoLocation = new GeoLocation(input.readDouble(), input.readDouble());
+            }
+            mOrientation = input.readInt();
+            int width = input.readInt();
+            int height = input.readInt();
+            if (width > 0 && height > 0) {
+                mOriginalDimension = new Dimension(width, height);
+            }
+            mGpsAltitude = readString(input);
+            mGpsCoordinate = readString(input);
+            mGpsBearing = readString(input);
+            mImageId = readString(input);
+            if (mImageId != null) {
+                mImageIdScheme = Options.ImageId.values()[input.readByte()];
+            }
+            mExifThumbnailOffset = input.readInt();
+            mExifThumbnailLength = input.readInt();
+        } catch (IOException | ArrayIndexOutOfBoundsException ex) {
+            return false;
+        }
+
+        mGeoLocation = getGeoLocation();
+
+        return true;
+    }
+
+    public boolean isCacheDirty() {
+        return mCacheDirty;
+    }
+
+    /**
+     * @return true if the position is taken from the track log
+     */
+    public boolean isTrackLogLocation() {
+        return mTrackLogLocation;
     }
 
     public boolean isZeroCoordinate() {
-        return mGpsDirectory == null || mGpsDirectory.getGeoLocation() == null || mGpsDirectory.getGeoLocation().isZero();
+        return mRawGeoLocation == null || mRawGeoLocation.isZero();
+    }
+
+    /**
+     * Serializes everything that {@link #init()} and the lazy getters have
+     * collected so far.
+     *
+     * @return data for {@link #initFromCache(byte[])}
+     */
+    public byte[] toCacheData() {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(128);
+
+        try (DataOutputStream output = new DataOutputStream(byteArrayOutputStream)) {
+            output.writeInt(CACHE_FORMAT);
+            output.writeBoolean(mHasExif);
+            output.writeBoolean(mHasGps);
+            output.writeLong(mDate);
+            output.writeBoolean(mRawGeoLocation != null);
+            if (mRawGeoLocation != null) {
+                output.writeDouble(mRawGeoLocation.getLatitude());
+                output.writeDouble(mRawGeoLocation.getLongitude());
+            }
+            output.writeInt(mOrientation);
+            output.writeInt(mOriginalDimension == null ? 0 : mOriginalDimension.width);
+            output.writeInt(mOriginalDimension == null ? 0 : mOriginalDimension.height);
+            writeString(output, mGpsAltitude);
+            writeString(output, mGpsCoordinate);
+            writeString(output, mGpsBearing);
+            writeString(output, mImageId);
+            if (mImageId != null) {
+                output.writeByte(mImageIdScheme.ordinal());
+            }
+            output.writeInt(mExifThumbnailOffset);
+            output.writeInt(mExifThumbnailLength);
+        } catch (IOException ex) {
+            //never with a byte array
+        }
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Reads on from the end of the buffer until it holds at least size
+     * bytes, growing it when needed.
+     *
+     * @return the buffer, or null if the file is shorter or size exceeds
+     * the max header size
+     */
+    private ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (size <= buffer.limit()) {
+            return buffer;
+        }
+
+        if (buffer.limit() < buffer.capacity() || size > JPEG_HEADER_MAX_SIZE) {
+            return null;
+        }
+
+        ByteBuffer grownBuffer = ByteBuffer.allocate(Math.min(JPEG_HEADER_MAX_SIZE, Math.max(size, buffer.capacity() * 2)));
+        grownBuffer.put(buffer);
+        readFully(channel, grownBuffer, grownBuffer.position());
+
+        return size <= grownBuffer.limit() ? grownBuffer : null;
     }
 
     private GeoLocation getGeoLocation() throws ImageProcessingException {
         GeoLocation geoLocation = null;
 
+        if (isZeroCoordinate() && mTrackLog != null && mDate != Long.MIN_VALUE) {
+            geoLocation = mTrackLog.getGeoLocation(mDate);
+            mTrackLogLocation = geoLocation != null;
+            if (mTrackLogLocation) {
+                return geoLocation;
+            }
+        }
+
         if (mIncludeNullCoordinate) {
-            try {
-                geoLocation = mGpsDirectory.getGeoLocation();
-                if (geoLocation.isZero()) {
-                    geoLocation = new GeoLocation(mOptions.getDefaultLat(), mOptions.getDefaultLon());
-                }
-            } catch (Exception e) {
-                //never error
+            geoLocation = mRawGeoLocation;
+            if (geoLocation != null && geoLocation.isZero()) {
+                geoLocation = new GeoLocation(mOptions.getDefaultLat(), mOptions.getDefaultLon());
             }
+        } else if (mRawGeoLocation == null) {
+            throw new ImageProcessingException(String.format("E012 %s", mFile.getAbsolutePath()));
         } else {
-            try {
-                geoLocation = mGpsDirectory.getGeoLocation();
-                geoLocation.isZero(); //Just force a reference
-            } catch (NullPointerException e) {
-                throw new ImageProcessingException(String.format("E012 %s", mFile.getAbsolutePath()));
-            }
+            geoLocation = mRawGeoLocation;
         }
 
         if (geoLocation == null) {
@@ -209,4 +458,289 @@ public class PhotoInfo {
         }
         return geoLocation;
     }
+
+    /**
+     * Hashes the first and the last chunk of the file together with its size.
+     * Two reads of at most 64 KiB each, regardless of file size.
+     */
+    private String getHeaderId() throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_ID_CHUNK_SIZE);
+
+            readFully(channel, buffer, 0);
+            messageDigest.update(buffer);
+
+            if (size > HEADER_ID_CHUNK_SIZE) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(HEADER_ID_CHUNK_SIZE, size - HEADER_ID_CHUNK_SIZE));
+                messageDigest.update(buffer);
+            }
+
+            buffer.clear();
+            buffer.putLong(size).flip();
+            messageDigest.update(buffer);
+        } catch (IOException ex) {
+            throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
+        }
+
+        byte[] digest = messageDigest.digest();
+
+        return String.format("%016x", ByteBuffer.wrap(digest).getLong());
+    }
+
+    private long getLastModified() {
+        try {
+            BasicFileAttributes attr = Files.readAttributes(mFile.toPath(), BasicFileAttributes.class);
+            return attr.lastModifiedTime().toMillis();
+        } catch (IOException ex) {
+            return mFile.lastModified();
+        }
+    }
+
+    /**
+     * Maps the stored image to the displayed one for an Exif orientation.
+     */
+    private AffineTransform getOrientationTransform(int width, int height) {
+        switch (mOrientation) {
+            case 2:
+                return new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3:
+                return new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4:
+                return new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5:
+                return new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6:
+                return new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7:
+                return new AffineTransform(0, -1, -1, 0, height, width);
+            case 8:
+                return new AffineTransform(0, -1, 1, 0, 0, width);
+            default:
+                return new AffineTransform();
+        }
+    }
+
+    /**
+     * Uses the embedded Exif thumbnail when enabled and large enough, the
+     * photo itself otherwise.
+     */
+    private BufferedImage getThumbnail() throws IOException {
+        int borderSize = mOptions.getThumbnailBorderSize();
+        int maxSize = Math.max(1, mOptions.getThumbnailSize() - borderSize * 2);
+
+        try {
+            BufferedImage thumbnail = null;
+            if (mOptions.isEmbeddedThumbnail() && mExifThumbnailLength > 0) {
+                byte[] exifThumbnail = readExifThumbnail();
+                if (exifThumbnail != null) {
+                    thumbnail = getThumbnail(ImageIO.createImageInputStream(new ByteArrayInputStream(exifThumbnail)), maxSize, borderSize, true);
+                }
+            }
+
+            if (thumbnail == null) {
+                thumbnail = getThumbnail(ImageIO.createImageInputStream(mFile), maxSize, borderSize, false);
+            }
+
+            if (thumbnail == null) {
+                throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
+            }
+
+            return thumbnail;
+        } catch (IOException | RuntimeException ex) {
+            throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * Decodes the image with source subsampling close to the thumbnail size,
+     * then scales, rotates and draws it inside the border in a single pass.
+     *
+     * @return null if no reader is available, or if an embedded thumbnail is
+     * smaller than the requested size or has another aspect ratio
+     */
+    private BufferedImage getThumbnail(ImageInputStream inputStream, int maxSize, int borderSize, boolean embedded) throws IOException {
+        if (inputStream == null) {
+            return null;
+        }
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(inputStream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                if (embedded) {
+                    int requiredSize = maxSize;
+                    if (mOriginalDimension != null) {
+                        int originalWidth = mOriginalDimension.width;
+                        int originalHeight = mOriginalDimension.height;
+                        requiredSize = Math.min(maxSize, Math.max(originalWidth, originalHeight));
+                        if (Math.abs((long) width * originalHeight - (long) height * originalWidth) > (long) originalWidth * originalHeight / 50) {
+                            return null;
+                        }
+                    }
+
+                    if (Math.max(width, height) < requiredSize) {
+                        return null;
+                    }
+                } else if (mOriginalDimension == null) {
+                    mOriginalDimension = new Dimension(width, height);
+                    mCacheDirty = true;
+                }
+
+                double scale = Math.min(1.0, Math.min((double) maxSize / width, (double) maxSize / height));
+                int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+                int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+
+                //Keep at least twice the target size for the final filtered downscale
+                int subsampling = Math.max(1, Math.min(width / scaledWidth, height / scaledHeight) / 2);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decodedImage = reader.read(0, param);
+
+                boolean swap = mOrientation >= 5 && mOrientation <= 8;
+                int borderedImageWidth = (swap ? scaledHeight : scaledWidth) + borderSize * 2;
+                int borderedImageHeight = (swap ? scaledWidth : scaledHeight) + borderSize * 2;
+
+                AffineTransform transform = AffineTransform.getTranslateInstance(borderSize, borderSize);
+                transform.concatenate(getOrientationTransform(scaledWidth, scaledHeight));
+                transform.scale((double) scaledWidth / decodedImage.getWidth(), (double) scaledHeight / decodedImage.getHeight());
+
+                BufferedImage borderedImage = new BufferedImage(borderedImageWidth, borderedImageHeight, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D g2 = borderedImage.createGraphics();
+                g2.setColor(Color.YELLOW);
+                g2.fillRect(0, 0, borderedImageWidth, borderedImageHeight);
+                g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g2.drawImage(decodedImage, transform, null);
+                g2.dispose();
+
+                return borderedImage;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads the JPEG thumbnail of IFD1. Its offset is relative to the TIFF
+     * header, which follows the Exif identifier of the APP1 segment.
+     *
+     * @return the thumbnail or null if it could not be located
+     */
+    private byte[] readExifThumbnail() throws IOException {
+        try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            long position = 2;
+
+            while (true) {
+                buffer.clear();
+                readFully(channel, buffer, position);
+                if (buffer.remaining() < 10 || (buffer.get(0) & 0xff) != 0xff) {
+                    return null;
+                }
+
+                int marker = buffer.get(1) & 0xff;
+                int length = buffer.getShort(2) & 0xffff;
+                if (marker == 0xda || marker == 0xd9) {
+                    return null;
+                }
+
+                //Exif\0\0
+                if (marker == 0xe1 && buffer.getInt(4) == 0x45786966 && buffer.getShort(8) == 0) {
+                    if (mExifThumbnailOffset + mExifThumbnailLength > length - 8) {
+                        return null;
+                    }
+
+                    ByteBuffer thumbnailBuffer = ByteBuffer.allocate(mExifThumbnailLength);
+                    readFully(channel, thumbnailBuffer, position + 10 + mExifThumbnailOffset);
+                    if (thumbnailBuffer.remaining() != mExifThumbnailLength || thumbnailBuffer.getShort(0) != (short) 0xffd8) {
+                        return null;
+                    }
+
+                    return thumbnailBuffer.array();
+                }
+
+                position += 2 + length;
+            }
+        }
+    }
+
+    /**
+     * Reads the segments in front of the compressed data of a JPEG file,
+     * which hold all of its metadata. The first chunk covers them for most
+     * photos.
+     *
+     * @return the bytes up to and including the SOS marker, or null if the
+     * file is not a JPEG or its segments could not be followed
+     */
+    private byte[] readJpegHeader() throws IOException {
+        try (FileChannel channel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(JPEG_HEADER_CHUNK_SIZE);
+            readFully(channel, buffer, 0);
+            if (buffer.remaining() < 2 || buffer.getShort(0) != (short) 0xffd8) {
+                return null;
+            }
+
+            int position = 2;
+            while (true) {
+                buffer = fill(channel, buffer, position + 4);
+                if (buffer == null || (buffer.get(position) & 0xff) != 0xff) {
+                    return null;
+                }
+
+                int marker = buffer.get(position + 1) & 0xff;
+                if (marker == 0xff) {
+                    //fill byte
+                    position++;
+                } else if (marker == 0xda || marker == 0xd9) {
+                    return Arrays.copyOf(buffer.array(), position + 2);
+                } else if (marker == 0x01 || marker >= 0xd0 && marker <= 0xd7) {
+                    //stand-alone, no length
+                    position += 2;
+                } else {
+                    position += 2 + (buffer.getShort(position + 2) & 0xffff);
+                }
+            }
+        }
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private void writeString(DataOutputStream output, String s) throws IOException {
+        output.writeBoolean(s != null);
+        if (s != null) {
+            output.writeUTF(s);
+        }
+    }
 }
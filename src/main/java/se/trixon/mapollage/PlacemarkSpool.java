@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append only temporary file of rendered placemarks.
+ * <p>
+ * Only the offsets, coordinates, times and styles are kept in memory, in
+ * primitive arrays, so the placemarks can be regrouped into their folders or
+ * tiles once all photos are processed.
+ * <p>
+ * Placemarks may also be joined into groups, the first placemark of a group
+ * is then copied with the descriptions of the others appended, or given them
+ * as its description if it has none, and the others are skipped.
+ *
+ * @author Patrik Karlström
+ */
+class PlacemarkSpool implements Closeable {
+
+    private static final byte[] DESCRIPTION_END = "</description>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DESCRIPTION_SEPARATOR = "<![CDATA[<hr />]]>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DESCRIPTION_START = "<description>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OPEN_END = "</open>\n".getBytes(StandardCharsets.UTF_8);
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+    private FileChannel mChannel;
+    private int mCount;
+    private final File mFile;
+    private double[] mLats = new double[1024];
+    private double[] mLons = new double[1024];
+    private boolean[] mMembers;
+    private int[] mNext;
+    private long[] mOffsets = new long[1025];
+    private OutputStream mOutputStream;
+    private int[] mStyles = new int[1024];
+    private long[] mTimes = new long[1024];
+
+    PlacemarkSpool() throws IOException {
+        mFile = File.createTempFile("mapollage", ".spool");
+        mFile.deleteOnExit();
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(mFile), 1 << 16);
+    }
+
+    /**
+     * Appends a rendered placemark.
+     *
+     * @param style the index of the style the placemark refers to
+     * @param time the time the photo was taken
+     * @return the index of the placemark
+     */
+    int add(byte[] bytes, double lat, double lon, int style, long time) throws IOException {
+        if (mCount == mLats.length) {
+            int capacity = mCount * 2;
+            mLats = Arrays.copyOf(mLats, capacity);
+            mLons = Arrays.copyOf(mLons, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+            mStyles = Arrays.copyOf(mStyles, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+        }
+
+        mOutputStream.write(bytes);
+        mLats[mCount] = lat;
+        mLons[mCount] = lon;
+        mStyles[mCount] = style;
+        mTimes[mCount] = time;
+        mOffsets[mCount + 1] = mOffsets[mCount] + bytes.length;
+
+        return mCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mOutputStream != null) {
+                mOutputStream.close();
+            }
+            if (mChannel != null) {
+                mChannel.close();
+            }
+        } finally {
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Copies one placemark to the writer. The first call ends the append
+     * phase.
+     */
+    void copyTo(int index, KmlWriter writer) throws IOException {
+        finish();
+        mBuffer = copyTo(index, writer, mBuffer);
+    }
+
+    /**
+     * Copies one placemark to the writer using the buffer of the caller, this
+     * may be called from several threads once {@link #finish()} has been
+     * called.
+     *
+     * @return the buffer, or a larger one if it could not hold the placemark
+     */
+    ByteBuffer copyTo(int index, KmlWriter writer, ByteBuffer buffer) throws IOException {
+        if (isMember(index)) {
+            return buffer;
+        }
+
+        buffer = read(index, buffer);
+        byte[] bytes = buffer.array();
+        int length = buffer.limit();
+        if (mNext == null || mNext[index] < 0) {
+            writer.raw(bytes, 0, length);
+            return buffer;
+        }
+
+        ByteArrayOutputStream descriptions = getMemberDescriptions(index);
+        int descriptionEnd = lastIndexOf(bytes, length, DESCRIPTION_END);
+        int openEnd = indexOf(bytes, length, OPEN_END);
+
+        if (descriptions.size() == 0 || descriptionEnd < 0 && openEnd < 0) {
+            writer.raw(bytes, 0, length);
+        } else if (descriptionEnd >= 0) {
+            writer.raw(bytes, 0, descriptionEnd);
+            writer.raw(DESCRIPTION_SEPARATOR, 0, DESCRIPTION_SEPARATOR.length);
+            writer.raw(descriptions.toByteArray(), 0, descriptions.size());
+            writer.raw(bytes, descriptionEnd, length - descriptionEnd);
+        } else {
+            //The leader has no description, give it one after the open element
+            int lineStart = openEnd;
+            while (lineStart > 0 && bytes[lineStart - 1] != '\n') {
+                lineStart--;
+            }
+            int indentEnd = lineStart;
+            while (bytes[indentEnd] == '\t') {
+                indentEnd++;
+            }
+            int insert = openEnd + OPEN_END.length;
+
+            writer.raw(bytes, 0, insert);
+            writer.raw(bytes, lineStart, indentEnd - lineStart);
+            writer.raw(DESCRIPTION_START, 0, DESCRIPTION_START.length);
+            writer.raw(descriptions.toByteArray(), 0, descriptions.size());
+            writer.raw(DESCRIPTION_END, 0, DESCRIPTION_END.length);
+            writer.raw(NEW_LINE, 0, NEW_LINE.length);
+            writer.raw(bytes, insert, length - insert);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Ends the append phase.
+     */
+    void finish() throws IOException {
+        if (mChannel == null) {
+            mOutputStream.close();
+            mOutputStream = null;
+            mChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ);
+        }
+    }
+
+    double getLat(int index) {
+        return mLats[index];
+    }
+
+    double getLon(int index) {
+        return mLons[index];
+    }
+
+    int getStyle(int index) {
+        return mStyles[index];
+    }
+
+    long getTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * @return true if the placemark has been joined into the group of
+     * another, it is then copied as part of that placemark
+     */
+    boolean isMember(int index) {
+        return mMembers != null && mMembers[index];
+    }
+
+    /**
+     * Joins placemarks into a group, they will be copied as part of the
+     * leader.
+     *
+     * @param leader a placemark that is not part of another group
+     * @param members placemarks that are not part of any group, in the order
+     * their descriptions should be appended
+     * @param count the number of members to join
+     */
+    void join(int leader, int[] members, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        if (mNext == null) {
+            mMembers = new boolean[mCount];
+            mNext = new int[mCount];
+            Arrays.fill(mNext, -1);
+        }
+
+        int previous = leader;
+        for (int i = 0; i < count; i++) {
+            int member = members[i];
+            mMembers[member] = true;
+            mNext[previous] = member;
+            previous = member;
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return the descriptions of the members of the group, separated
+     */
+    private ByteArrayOutputStream getMemberDescriptions(int leader) throws IOException {
+        ByteArrayOutputStream descriptions = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        for (int member = mNext[leader]; member >= 0; member = mNext[member]) {
+            buffer = read(member, buffer);
+            int start = indexOf(buffer.array(), buffer.limit(), DESCRIPTION_START);
+            int end = lastIndexOf(buffer.array(), buffer.limit(), DESCRIPTION_END);
+            if (start >= 0 && end > start) {
+                start += DESCRIPTION_START.length;
+                if (descriptions.size() > 0) {
+                    descriptions.write(DESCRIPTION_SEPARATOR);
+                }
+                descriptions.write(buffer.array(), start, end - start);
+            }
+        }
+
+        return descriptions;
+    }
+
+    private int indexOf(byte[] bytes, int length, byte[] pattern) {
+        for (int i = 0; i <= length - pattern.length; i++) {
+            if (matches(bytes, i, pattern)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int lastIndexOf(byte[] bytes, int length, byte[] pattern) {
+        for (int i = length - pattern.length; i >= 0; i--) {
+            if (matches(bytes, i, pattern)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean matches(byte[] bytes, int offset, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (bytes[offset + i] != pattern[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the buffer, or a larger one if it could not hold the placemark,
+     * flipped for reading the placemark
+     */
+    private ByteBuffer read(int index, ByteBuffer buffer) throws IOException {
+        int length = (int) (mOffsets[index + 1] - mOffsets[index]);
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+
+        buffer.clear().limit(length);
+        long position = mOffsets[index];
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(String.format("E000 %s", mFile.getAbsolutePath()));
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+}
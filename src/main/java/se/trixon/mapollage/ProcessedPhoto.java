@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.File;
+
+/**
+ * The outcome of the worker stage for one photo, handed over to the assembler
+ * thread in file order.
+ *
+ * @author Patrik Karlström
+ */
+class ProcessedPhoto {
+
+    private Exception mException;
+    private final File mFile;
+    private byte[] mFragment;
+    private boolean mHasLocation;
+    private String mImageId;
+    private long mLastModified;
+    private Manifest.Entry mManifestEntry;
+    private PhotoInfo mPhotoInfo;
+    private long mSize = -1;
+    private byte[] mThumbnail;
+    private long mThumbnailCrc;
+
+    ProcessedPhoto(File file) {
+        mFile = file;
+    }
+
+    Exception getException() {
+        return mException;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return the placemark of an unchanged photo, rendered by a previous run
+     */
+    byte[] getFragment() {
+        return mFragment;
+    }
+
+    String getImageId() {
+        return mImageId;
+    }
+
+    long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return the manifest entry of an unchanged photo or null
+     */
+    Manifest.Entry getManifestEntry() {
+        return mManifestEntry;
+    }
+
+    PhotoInfo getPhotoInfo() {
+        return mPhotoInfo;
+    }
+
+    /**
+     * @return the file size or -1 if the file attributes are unknown
+     */
+    long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the encoded thumbnail when writing KMZ, otherwise null
+     */
+    byte[] getThumbnail() {
+        return mThumbnail;
+    }
+
+    long getThumbnailCrc() {
+        return mThumbnailCrc;
+    }
+
+    boolean hasLocation() {
+        return mHasLocation;
+    }
+
+    void setException(Exception exception) {
+        mException = exception;
+    }
+
+    void setFileAttributes(long size, long lastModified) {
+        mSize = size;
+        mLastModified = lastModified;
+    }
+
+    void setHasLocation(boolean hasLocation) {
+        mHasLocation = hasLocation;
+    }
+
+    void setImageId(String imageId) {
+        mImageId = imageId;
+    }
+
+    void setManifestEntry(Manifest.Entry manifestEntry, byte[] fragment) {
+        mManifestEntry = manifestEntry;
+        mFragment = fragment;
+    }
+
+    void setPhotoInfo(PhotoInfo photoInfo) {
+        mPhotoInfo = photoInfo;
+    }
+
+    void setThumbnail(byte[] thumbnail, long crc) {
+        mThumbnail = thumbnail;
+        mThumbnailCrc = crc;
+    }
+}
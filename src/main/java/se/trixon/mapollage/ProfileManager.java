@@ -50,6 +50,10 @@ public class ProfileManager {
         }
     }
 
+    public File getDirectory() {
+        return mDirectory;
+    }
+
     public Profile getProfile(String name) {
         for (Profile profile : mProfilesHolder.getProfiles()) {
             if (profile.getName().equalsIgnoreCase(name)) {
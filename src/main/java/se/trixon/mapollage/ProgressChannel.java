@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import se.trixon.almond.util.SystemHelper;
+
+/**
+ * Rate limited, coalescing front of an {@link OperationListener}.
+ * <p>
+ * Log lines are kept in a ring buffer of the {@link #CAPACITY} most recent
+ * lines and progress only keeps the latest value. Both are delivered at most
+ * {@link #UPDATES_PER_SECOND} times per second, the lines joined to one
+ * message. All other events are passed on right away, after anything still
+ * pending.
+ *
+ * @author Patrik Karlström
+ */
+class ProgressChannel implements OperationListener {
+
+    static final int CAPACITY = 1000;
+    static final int UPDATES_PER_SECOND = 10;
+
+    private final ResourceBundle mBundle = SystemHelper.getBundle(ProgressChannel.class, "Bundle");
+    private final Object mDeliveryLock = new Object();
+    private long mDroppedLines;
+    private ScheduledExecutorService mExecutorService;
+    private int mHead;
+    private final String[] mLines = new String[CAPACITY];
+    private final OperationListener mListener;
+    private int mProgressMax;
+    private String mProgressMessage;
+    private int mProgressValue = -1;
+    private int mSize;
+
+    ProgressChannel(OperationListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onOperationError(String message) {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationError(message);
+        }
+    }
+
+    @Override
+    public void onOperationFailed(String message) {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationFailed(message);
+        }
+    }
+
+    @Override
+    public void onOperationFinished(String message, int placemarkCount) {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationFinished(message, placemarkCount);
+        }
+    }
+
+    @Override
+    public void onOperationInterrupted() {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationInterrupted();
+        }
+    }
+
+    @Override
+    public synchronized void onOperationLog(String message) {
+        if (mSize == CAPACITY) {
+            mHead = (mHead + 1) % CAPACITY;
+            mSize--;
+            mDroppedLines++;
+        }
+
+        mLines[(mHead + mSize++) % CAPACITY] = message;
+    }
+
+    @Override
+    public void onOperationProcessingStarted() {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationProcessingStarted();
+        }
+    }
+
+    @Override
+    public synchronized void onOperationProgress(String message) {
+        mProgressMessage = message;
+    }
+
+    @Override
+    public synchronized void onOperationProgress(int value, int max) {
+        mProgressValue = value;
+        mProgressMax = max;
+    }
+
+    @Override
+    public void onOperationStarted() {
+        synchronized (mDeliveryLock) {
+            flush();
+            mListener.onOperationStarted();
+        }
+    }
+
+    /**
+     * Starts the periodic delivery.
+     */
+    void start() {
+        mExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ProgressChannel");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        long period = 1000 / UPDATES_PER_SECOND;
+        mExecutorService.scheduleAtFixedRate(this::flush, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic delivery and delivers anything still pending.
+     */
+    void stop() {
+        if (mExecutorService != null) {
+            mExecutorService.shutdown();
+            mExecutorService = null;
+        }
+
+        flush();
+    }
+
+    private void flush() {
+        synchronized (mDeliveryLock) {
+            String log = null;
+            String progressMessage;
+            int progressValue;
+            int progressMax;
+
+            synchronized (this) {
+                if (mSize > 0) {
+                    StringBuilder builder = new StringBuilder();
+                    if (mDroppedLines > 0) {
+                        builder.append(String.format(mBundle.getString("dropped_lines"), mDroppedLines)).append('\n');
+                    }
+
+                    for (int i = 0; i < mSize; i++) {
+                        int index = (mHead + i) % CAPACITY;
+                        builder.append(mLines[index]);
+                        if (i < mSize - 1) {
+                            builder.append('\n');
+                        }
+                        mLines[index] = null;
+                    }
+
+                    log = builder.toString();
+                    mHead = 0;
+                    mSize = 0;
+                    mDroppedLines = 0;
+                }
+
+                progressMessage = mProgressMessage;
+                progressValue = mProgressValue;
+                progressMax = mProgressMax;
+                mProgressMessage = null;
+                mProgressValue = -1;
+            }
+
+            if (log != null) {
+                mListener.onOperationLog(log);
+            }
+
+            if (progressMessage != null) {
+                mListener.onOperationProgress(progressMessage);
+            }
+
+            if (progressValue >= 0) {
+                mListener.onOperationProgress(progressValue, progressMax);
+            }
+        }
+    }
+}
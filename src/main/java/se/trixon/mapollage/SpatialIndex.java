@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Grid bucket index over the coordinates of a {@link PlacemarkSpool}.
+ * <p>
+ * The placemarks are sorted by the cell they fall in, cells are numbered row
+ * by row, so the cells of one row of a query are a single range of the
+ * sorted keys and found with a binary search. Everything is kept in
+ * primitive arrays and building the index is n log n. The index is
+ * immutable and may be queried from several threads.
+ * <p>
+ * The grid does not wrap at ±180° longitude, so placemarks on the other side
+ * of the antimeridian are not found by a query.
+ *
+ * @author Patrik Karlström
+ */
+class SpatialIndex {
+
+    private static final double EARTH_RADIUS = 6371008.8;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    private static final double MIN_CELL_SIZE = 1.0;
+
+    private final double mCellDegrees;
+    private final long mColumns;
+    private final int[] mIndices;
+    private final long[] mKeys;
+    private final PlacemarkSpool mPlacemarkSpool;
+    private final long mRows;
+
+    /**
+     * @return the great circle distance in meters
+     */
+    static double getDistance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * @param placemarkSpool
+     * @param cellSize the side of a cell in meters, queries are fastest with
+     * a radius of about the same size
+     */
+    SpatialIndex(PlacemarkSpool placemarkSpool, double cellSize) {
+        mPlacemarkSpool = placemarkSpool;
+        mCellDegrees = Math.max(cellSize, MIN_CELL_SIZE) / METERS_PER_DEGREE;
+        mRows = (long) Math.ceil(180 / mCellDegrees) + 1;
+        mColumns = (long) Math.ceil(360 / mCellDegrees) + 1;
+
+        int size = placemarkSpool.size();
+        long[] keys = new long[size];
+        mIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = getKey(getRow(placemarkSpool.getLat(i)), getColumn(placemarkSpool.getLon(i)));
+            mIndices[i] = i;
+        }
+
+        sort(mIndices, keys, new int[size], 0, size);
+
+        mKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            mKeys[i] = keys[mIndices[i]];
+        }
+    }
+
+    /**
+     * Passes every placemark within the radius, in ascending order within
+     * each cell.
+     *
+     * @param lat
+     * @param lon
+     * @param radius in meters
+     * @param consumer receives the index of the placemark in the spool
+     */
+    void query(double lat, double lon, double radius, IntConsumer consumer) {
+        double latDegrees = radius / METERS_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(Math.min(89.0, Math.abs(lat) + latDegrees)));
+        double lonDegrees = Math.min(360, latDegrees / cos);
+
+        long firstRow = getRow(lat - latDegrees);
+        long lastRow = getRow(lat + latDegrees);
+        long firstColumn = getColumn(lon - lonDegrees);
+        long lastColumn = getColumn(lon + lonDegrees);
+
+        for (long row = firstRow; row <= lastRow; row++) {
+            long lastKey = getKey(row, lastColumn);
+            for (int i = lowerBound(getKey(row, firstColumn)); i < mKeys.length && mKeys[i] <= lastKey; i++) {
+                int index = mIndices[i];
+                if (getDistance(lat, lon, mPlacemarkSpool.getLat(index), mPlacemarkSpool.getLon(index)) <= radius) {
+                    consumer.accept(index);
+                }
+            }
+        }
+    }
+
+    private long getColumn(double lon) {
+        return Math.max(0, Math.min(mColumns - 1, (long) Math.floor((lon + 180) / mCellDegrees)));
+    }
+
+    private long getKey(long row, long column) {
+        return row * mColumns + column;
+    }
+
+    private long getRow(double lat) {
+        return Math.max(0, Math.min(mRows - 1, (long) Math.floor((lat + 90) / mCellDegrees)));
+    }
+
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = mKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Stable merge sort of the indices by their keys.
+     */
+    private void sort(int[] indices, long[] keys, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        sort(indices, keys, scratch, from, mid);
+        sort(indices, keys, scratch, mid, to);
+        if (keys[indices[mid - 1]] <= keys[indices[mid]]) {
+            return;
+        }
+
+        System.arraycopy(indices, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < mid && keys[scratch[left]] <= keys[scratch[right]]) {
+                indices[i] = scratch[left++];
+            } else {
+                indices[i] = scratch[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the placemarks of a spool as a quadtree of small KML files.
+ * <p>
+ * The tree starts with the whole world and a quadrant holding more than
+ * {@link #MAX_PLACEMARKS} placemarks is split in four. Inner tiles only hold
+ * network links to their quadrants, each with a region, so a client fetches
+ * a tile when its quadrant comes into view. Every tile streams its
+ * placemarks from the spool to its own file and the tiles are written in
+ * parallel, memory use is therefore bounded by the number of threads and not
+ * by the size of the tiles.
+ * <p>
+ * When clustering, quadrants are split down to {@link #CLUSTER_GRID} squared
+ * placemarks and every inner tile also holds the clusters of a
+ * {@link #CLUSTER_GRID} by {@link #CLUSTER_GRID} grid over its quadrant,
+ * shown until its own quadrants take over. Each level visits every
+ * placemark once, which makes the clustering n log n.
+ *
+ * @author Patrik Karlström
+ */
+class TileWriter {
+
+    static final String ROOT_KEY = "tile";
+    private static final int CLUSTER_GRID = 8;
+    private static final int MAX_DEPTH = 24;
+    private static final int MAX_PLACEMARKS = 1000;
+    private static final int MIN_LOD_PIXELS = 256;
+
+    private final boolean mCluster;
+    private final File mDir;
+    private final int[] mIndices;
+    private final PlacemarkSpool mPlacemarkSpool;
+    private final StyleWriter mStyleWriter;
+    private final ArrayList<Tile> mTiles = new ArrayList<>();
+
+    static String getTileName(String key) {
+        return key + ".kml";
+    }
+
+    TileWriter(PlacemarkSpool placemarkSpool, File dir, StyleWriter styleWriter, boolean cluster) {
+        mPlacemarkSpool = placemarkSpool;
+        mDir = dir;
+        mStyleWriter = styleWriter;
+        mCluster = cluster;
+        mIndices = new int[placemarkSpool.size()];
+        for (int i = 0; i < mIndices.length; i++) {
+            mIndices[i] = i;
+        }
+    }
+
+    /**
+     * Partitions the placemarks and writes the tiles.
+     *
+     * @param threads
+     * @return the written files, the root tile first
+     * @throws IOException
+     */
+    List<File> write(int threads) throws IOException {
+        mPlacemarkSpool.finish();
+        split(new Tile(ROOT_KEY, 0, mIndices.length, 90, -90, 180, -180), 0, new int[mIndices.length]);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Callable<File>> tasks = new ArrayList<>(mTiles.size());
+            for (Tile tile : mTiles) {
+                tasks.add(() -> writeTile(tile));
+            }
+
+            ArrayList<File> files = new ArrayList<>(mTiles.size());
+            for (Future<File> future : executorService.invokeAll(tasks)) {
+                files.add(future.get());
+            }
+
+            return files;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+
+            throw new IOException(ex.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private int getCell(double value, double min, double max) {
+        int cell = (int) ((value - min) / (max - min) * CLUSTER_GRID);
+
+        return Math.max(0, Math.min(CLUSTER_GRID - 1, cell));
+    }
+
+    /**
+     * @return 0 for north west, 1 for north east, 2 for south west and 3 for
+     * south east
+     */
+    private int getQuadrant(int index, double midLat, double midLon) {
+        int quadrant = mPlacemarkSpool.getLat(index) >= midLat ? 0 : 2;
+        if (mPlacemarkSpool.getLon(index) >= midLon) {
+            quadrant++;
+        }
+
+        return quadrant;
+    }
+
+    /**
+     * Sorts the placemarks of the tile into its quadrants, keeping their
+     * order within each quadrant, and continues with the quadrants that hold
+     * too many placemarks.
+     */
+    private void split(Tile tile, int depth, int[] scratch) {
+        mTiles.add(tile);
+        int maxPlacemarks = mCluster ? CLUSTER_GRID * CLUSTER_GRID : MAX_PLACEMARKS;
+        if (tile.mTo - tile.mFrom <= maxPlacemarks || depth == MAX_DEPTH) {
+            return;
+        }
+
+        double midLat = (tile.mNorth + tile.mSouth) / 2;
+        double midLon = (tile.mEast + tile.mWest) / 2;
+        int[] starts = new int[5];
+
+        for (int i = tile.mFrom; i < tile.mTo; i++) {
+            starts[getQuadrant(mIndices[i], midLat, midLon) + 1]++;
+        }
+
+        starts[0] = tile.mFrom;
+        for (int q = 1; q < starts.length; q++) {
+            starts[q] += starts[q - 1];
+        }
+
+        int[] positions = Arrays.copyOf(starts, 4);
+        for (int i = tile.mFrom; i < tile.mTo; i++) {
+            int index = mIndices[i];
+            scratch[positions[getQuadrant(index, midLat, midLon)]++] = index;
+        }
+        System.arraycopy(scratch, tile.mFrom, mIndices, tile.mFrom, tile.mTo - tile.mFrom);
+
+        tile.mQuadrants = new Tile[4];
+        for (int q = 0; q < 4; q++) {
+            if (starts[q + 1] > starts[q]) {
+                double north = q < 2 ? tile.mNorth : midLat;
+                double south = q < 2 ? midLat : tile.mSouth;
+                double east = q % 2 == 1 ? tile.mEast : midLon;
+                double west = q % 2 == 1 ? midLon : tile.mWest;
+
+                tile.mQuadrants[q] = new Tile(tile.mKey + q, starts[q], starts[q + 1], north, south, east, west);
+                split(tile.mQuadrants[q], depth + 1, scratch);
+            }
+        }
+    }
+
+    /**
+     * Writes a folder with one placemark per occupied grid cell, a cell with
+     * a single placemark shows the placemark itself. A cluster is placed at
+     * the mean position of its placemarks, named by their count and uses the
+     * style of the first of them. The folder is hidden when the quadrants of
+     * the tile become active.
+     */
+    private void writeClusters(KmlWriter writer, Tile tile) throws IOException {
+        int cells = CLUSTER_GRID * CLUSTER_GRID;
+        int[] counts = new int[cells];
+        int[] firsts = new int[cells];
+        double[] lats = new double[cells];
+        double[] lons = new double[cells];
+
+        for (int i = tile.mFrom; i < tile.mTo; i++) {
+            int index = mIndices[i];
+            //Collapsed placemarks are shown by the leader of their group
+            if (mPlacemarkSpool.isMember(index)) {
+                continue;
+            }
+
+            double lat = mPlacemarkSpool.getLat(index);
+            double lon = mPlacemarkSpool.getLon(index);
+            int row = getCell(lat, tile.mSouth, tile.mNorth);
+            int col = getCell(lon, tile.mWest, tile.mEast);
+            int cell = row * CLUSTER_GRID + col;
+
+            if (counts[cell] == 0 || index < firsts[cell]) {
+                firsts[cell] = index;
+            }
+            counts[cell]++;
+            lats[cell] += lat;
+            lons[cell] += lon;
+        }
+
+        int[] occupied = new int[cells];
+        int numOfOccupied = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            if (counts[cell] > 0) {
+                occupied[numOfOccupied++] = firsts[cell];
+            }
+        }
+
+        writeStyles(writer, occupied, 0, numOfOccupied);
+        writer.start("Folder");
+        writeRegion(writer, tile, 0, 2 * MIN_LOD_PIXELS);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int cell = 0; cell < cells; cell++) {
+            int count = counts[cell];
+            if (count == 1) {
+                buffer = mPlacemarkSpool.copyTo(firsts[cell], writer, buffer);
+            } else if (count > 1) {
+                writer.start("Placemark")
+                        .element("name", String.valueOf(count))
+                        .element("styleUrl", "#" + mStyleWriter.getStyleMapId(mPlacemarkSpool.getStyle(firsts[cell])))
+                        .start("Point")
+                        .start("coordinates")
+                        .coordinate(lons[cell] / count, lats[cell] / count, 0)
+                        .end()
+                        .end()
+                        .end();
+            }
+        }
+
+        writer.end();
+    }
+
+    private void writeRegion(KmlWriter writer, Tile tile, int minLodPixels, int maxLodPixels) throws IOException {
+        writer.start("Region")
+                .start("LatLonAltBox")
+                .element("north", tile.mNorth)
+                .element("south", tile.mSouth)
+                .element("east", tile.mEast)
+                .element("west", tile.mWest)
+                .end()
+                .start("Lod")
+                .element("minLodPixels", String.valueOf(minLodPixels))
+                .element("maxLodPixels", String.valueOf(maxLodPixels))
+                .end()
+                .end();
+    }
+
+    /**
+     * Writes the styles the placemarks refer to, each once.
+     */
+    private void writeStyles(KmlWriter writer, int[] indices, int from, int to) throws IOException {
+        boolean[] written = new boolean[0];
+        for (int i = from; i < to; i++) {
+            int style = mPlacemarkSpool.getStyle(indices[i]);
+            if (style >= written.length) {
+                written = Arrays.copyOf(written, Math.max(style + 1, written.length * 2));
+            }
+
+            if (!written[style]) {
+                written[style] = true;
+                mStyleWriter.write(writer, style);
+            }
+        }
+    }
+
+    private File writeTile(Tile tile) throws IOException {
+        File file = new File(mDir, getTileName(tile.mKey));
+
+        try (KmlWriter writer = new KmlWriter(new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16))) {
+            writer.startKml();
+            writer.start("Document");
+
+            if (tile.mQuadrants != null) {
+                if (mCluster) {
+                    writeClusters(writer, tile);
+                }
+
+                for (Tile quadrant : tile.mQuadrants) {
+                    if (quadrant != null) {
+                        writeTileLink(writer, quadrant);
+                    }
+                }
+            } else {
+                writeStyles(writer, mIndices, tile.mFrom, tile.mTo);
+
+                ByteBuffer buffer = ByteBuffer.allocate(4096);
+                for (int i = tile.mFrom; i < tile.mTo; i++) {
+                    buffer = mPlacemarkSpool.copyTo(mIndices[i], writer, buffer);
+                }
+            }
+
+            writer.endKml();
+        }
+
+        return file;
+    }
+
+    private void writeTileLink(KmlWriter writer, Tile tile) throws IOException {
+        writer.start("NetworkLink");
+        writeRegion(writer, tile, MIN_LOD_PIXELS, -1);
+        writer.start("Link")
+                .element("href", getTileName(tile.mKey))
+                .element("viewRefreshMode", "onRegion")
+                .end()
+                .end();
+    }
+
+    interface StyleWriter {
+
+        String getStyleMapId(int style);
+
+        void write(KmlWriter writer, int style) throws IOException;
+    }
+
+    private static class Tile {
+
+        private final double mEast;
+        private final int mFrom;
+        private final String mKey;
+        private final double mNorth;
+        private Tile[] mQuadrants;
+        private final double mSouth;
+        private final int mTo;
+        private final double mWest;
+
+        Tile(String key, int from, int to, double north, double south, double east, double west) {
+            mKey = key;
+            mFrom = from;
+            mTo = to;
+            mNorth = north;
+            mSouth = south;
+            mEast = east;
+            mWest = west;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Time stamped positions in parallel primitive arrays.
+ * <p>
+ * A sorted track is split into segments in a single pass, either by calendar
+ * period or where consecutive positions are too far apart in time or place.
+ * Only the times are compared per position, the calendar is consulted once
+ * per segment.
+ * <p>
+ * Parts of the track can be simplified with Ramer-Douglas-Peucker, keeping
+ * the positions that deviate more than a tolerance from the line between
+ * the kept ones. Deviations are measured in meters on a local equirectangular
+ * projection, which is plenty accurate at the scale of a tolerance.
+ *
+ * @author Patrik Karlström
+ */
+class Track {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private double[] mLats = new double[64];
+    private double[] mLons = new double[64];
+    private int mSize;
+    private long[] mTimes = new long[64];
+
+    void add(long time, double lat, double lon) {
+        if (mSize == mTimes.length) {
+            mTimes = Arrays.copyOf(mTimes, mSize * 2);
+            mLats = Arrays.copyOf(mLats, mSize * 2);
+            mLons = Arrays.copyOf(mLons, mSize * 2);
+        }
+
+        mTimes[mSize] = time;
+        mLats[mSize] = lat;
+        mLons[mSize] = lon;
+        mSize++;
+    }
+
+    double getLat(int index) {
+        return mLats[index];
+    }
+
+    double getLon(int index) {
+        return mLons[index];
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch
+     */
+    long getTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * Simplifies the positions from and to, both inclusive.
+     *
+     * @param tolerance in meters
+     * @return the indices of the kept positions, in order, the first and the
+     * last are always kept
+     */
+    int[] simplify(int from, int to, double tolerance) {
+        int size = to - from + 1;
+        if (size < 3) {
+            return range(from, to);
+        }
+
+        double kx = METERS_PER_DEGREE * Math.cos(Math.toRadians(mLats[from]));
+        double tolerance2 = tolerance * tolerance;
+        boolean[] kept = new boolean[size];
+        kept[0] = kept[size - 1] = true;
+        int count = 2;
+
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = from;
+        stack[top++] = to;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double ax = mLons[first] * kx;
+            double ay = mLats[first] * METERS_PER_DEGREE;
+            double bx = mLons[last] * kx;
+            double by = mLats[last] * METERS_PER_DEGREE;
+            double maxDistance = tolerance2;
+            int index = -1;
+
+            for (int i = first + 1; i < last; i++) {
+                double distance = getDistance(mLons[i] * kx, mLats[i] * METERS_PER_DEGREE, ax, ay, bx, by);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+
+            if (index != -1) {
+                kept[index - from] = true;
+                count++;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+
+        int[] indices = new int[count];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (kept[i]) {
+                indices[j++] = from + i;
+            }
+        }
+
+        return indices;
+    }
+
+    /**
+     * @return the index of the first position at or after the time in the
+     * sorted track, or the size if there is none
+     */
+    int indexOf(long time) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Sorts the positions by time, positions with the same time keep their
+     * order.
+     */
+    void sort() {
+        int[] indices = range(0, mSize - 1);
+        sort(indices, new int[mSize], 0, mSize);
+
+        long[] times = new long[mTimes.length];
+        double[] lats = new double[mLats.length];
+        double[] lons = new double[mLons.length];
+        for (int i = 0; i < mSize; i++) {
+            times[i] = mTimes[indices[i]];
+            lats[i] = mLats[indices[i]];
+            lons[i] = mLons[indices[i]];
+        }
+
+        mTimes = times;
+        mLats = lats;
+        mLons = lons;
+    }
+
+    /**
+     * Splits the sorted track by calendar period in the default time zone.
+     * Weeks start on the first day of the week of the default locale.
+     *
+     * @param unit the period, HOURS, DAYS, WEEKS, MONTHS or YEARS, or null
+     * to not split
+     * @return the first index of every segment, followed by the size
+     */
+    int[] split(ChronoUnit unit) {
+        int[] segments = new int[mSize + 1];
+        int count = 0;
+        ZoneId zoneId = ZoneId.systemDefault();
+        DayOfWeek firstDayOfWeek = WeekFields.of(Locale.getDefault()).getFirstDayOfWeek();
+        long end = Long.MIN_VALUE;
+
+        for (int i = 0; i < mSize; i++) {
+            if (mTimes[i] >= end) {
+                segments[count++] = i;
+                end = unit == null ? Long.MAX_VALUE : getPeriodEnd(mTimes[i], unit, zoneId, firstDayOfWeek);
+            }
+        }
+        segments[count++] = mSize;
+
+        return Arrays.copyOf(segments, count);
+    }
+
+    /**
+     * Splits the sorted track where consecutive positions are more than a
+     * gap apart in time, or would have to be travelled between faster than a
+     * speed.
+     *
+     * @param maxGap in milliseconds
+     * @param maxSpeed in meters per second
+     * @return the first index of every segment, followed by the size
+     */
+    int[] split(long maxGap, double maxSpeed) {
+        int[] segments = new int[mSize + 1];
+        int count = 0;
+
+        for (int i = 0; i < mSize; i++) {
+            long gap = i == 0 ? 0 : mTimes[i] - mTimes[i - 1];
+            if (i == 0
+                    || gap > maxGap
+                    || SpatialIndex.getDistance(mLats[i - 1], mLons[i - 1], mLats[i], mLons[i]) > maxSpeed * Math.max(gap, 1000) / 1000) {
+                segments[count++] = i;
+            }
+        }
+        segments[count++] = mSize;
+
+        return Arrays.copyOf(segments, count);
+    }
+
+    /**
+     * @return the squared distance from p to the segment a-b
+     */
+    private double getDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / length));
+        double x = ax + t * dx - px;
+        double y = ay + t * dy - py;
+
+        return x * x + y * y;
+    }
+
+    /**
+     * @return the start of the period after the one the time falls in
+     */
+    private long getPeriodEnd(long time, ChronoUnit unit, ZoneId zoneId, DayOfWeek firstDayOfWeek) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(zoneId);
+        ZonedDateTime start;
+
+        switch (unit) {
+            case HOURS:
+                start = dateTime.truncatedTo(ChronoUnit.HOURS);
+                break;
+            case WEEKS:
+                start = dateTime.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+                break;
+            case MONTHS:
+                start = dateTime.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+                break;
+            case YEARS:
+                start = dateTime.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+                break;
+            default:
+                start = dateTime.truncatedTo(ChronoUnit.DAYS);
+                break;
+        }
+
+        return start.plus(1, unit).toInstant().toEpochMilli();
+    }
+
+    private int[] range(int from, int to) {
+        int[] indices = new int[to - from + 1];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = from + i;
+        }
+
+        return indices;
+    }
+
+    /**
+     * Stable merge sort of the indices by their times.
+     */
+    private void sort(int[] indices, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        sort(indices, scratch, from, mid);
+        sort(indices, scratch, mid, to);
+        if (mTimes[indices[mid - 1]] <= mTimes[indices[mid]]) {
+            return;
+        }
+
+        System.arraycopy(indices, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < mid && mTimes[scratch[left]] <= mTimes[scratch[right]]) {
+                indices[i] = scratch[left++];
+            } else {
+                indices[i] = scratch[right++];
+            }
+        }
+    }
+}
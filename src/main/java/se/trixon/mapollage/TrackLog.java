@@ -0,0 +1,273 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import com.drew.lang.GeoLocation;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Positions from GPS track logs, for photos without a position of their own.
+ * <p>
+ * The track points of GPX files and the RMC sentences of NMEA files are read
+ * once into a {@link Track} sorted by time. A photo is then located by a
+ * binary search for its time, interpolating between the surrounding points
+ * when both are within the max offset, else taking the one that is. Log
+ * times are UTC unless they say otherwise.
+ *
+ * @author Patrik Karlström
+ */
+class TrackLog {
+
+    private final List<String> mErrors = new ArrayList<>();
+    private final long mMaxOffset;
+    private final Track mTrack = new Track();
+
+    /**
+     * @param maxOffset the max time in milliseconds between a photo and a
+     * point of the log
+     */
+    TrackLog(long maxOffset) {
+        mMaxOffset = maxOffset;
+    }
+
+    /**
+     * @return the messages of the logs that could not be read
+     */
+    List<String> getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * Thread safe once loaded.
+     *
+     * @param time in milliseconds since the epoch
+     * @return the position at the time, or null if the log has no point
+     * within the max offset
+     */
+    GeoLocation getGeoLocation(long time) {
+        int next = mTrack.indexOf(time);
+        int previous = next - 1;
+        boolean hasNext = next < mTrack.size() && mTrack.getTime(next) - time <= mMaxOffset;
+        boolean hasPrevious = previous >= 0 && time - mTrack.getTime(previous) <= mMaxOffset;
+
+        if (hasNext && hasPrevious) {
+            double fraction = (double) (time - mTrack.getTime(previous)) / (mTrack.getTime(next) - mTrack.getTime(previous));
+
+            return new GeoLocation(
+                    mTrack.getLat(previous) + fraction * (mTrack.getLat(next) - mTrack.getLat(previous)),
+                    mTrack.getLon(previous) + fraction * (mTrack.getLon(next) - mTrack.getLon(previous)));
+        } else if (hasNext) {
+            return new GeoLocation(mTrack.getLat(next), mTrack.getLon(next));
+        } else if (hasPrevious) {
+            return new GeoLocation(mTrack.getLat(previous), mTrack.getLon(previous));
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the gpx, nmea and nma files of the directory and its sub
+     * directories.
+     *
+     * @return the number of files read
+     * @throws IOException if the directory can not be read
+     */
+    int load(File dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir.toPath())) {
+            paths = stream
+                    .filter(path -> Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        int count = 0;
+        for (Path path : paths) {
+            String extension = FilenameUtils.getExtension(path.toString()).toLowerCase();
+            try {
+                if (extension.equals("gpx")) {
+                    loadGpx(path);
+                } else if (extension.equals("nmea") || extension.equals("nma")) {
+                    loadNmea(path);
+                } else {
+                    continue;
+                }
+                count++;
+            } catch (IOException | XMLStreamException | RuntimeException ex) {
+                mErrors.add(String.format("E000 %s", path.toString()));
+            }
+        }
+
+        mTrack.sort();
+
+        return count;
+    }
+
+    int size() {
+        return mTrack.size();
+    }
+
+    /**
+     * @return the value of a NMEA ddmm.mmmm or dddmm.mmmm field in degrees
+     */
+    private double getDegrees(String value, String hemisphere) {
+        double degreesMinutes = Double.parseDouble(value);
+        double degrees = Math.floor(degreesMinutes / 100);
+        degrees += (degreesMinutes - degrees * 100) / 60;
+
+        return hemisphere.equals("S") || hemisphere.equals("W") ? -degrees : degrees;
+    }
+
+    private int getDigits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(text);
+            }
+            value = value * 10 + c - '0';
+        }
+
+        return value;
+    }
+
+    private void loadGpx(Path path) throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+            try {
+                double lat = 0;
+                double lon = 0;
+                long time = Long.MIN_VALUE;
+                boolean inPoint = false;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("trkpt")) {
+                            lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                            lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                            time = Long.MIN_VALUE;
+                            inPoint = true;
+                        } else if (inPoint && name.equals("time")) {
+                            time = parseTime(reader.getElementText().trim());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("trkpt")) {
+                        if (time != Long.MIN_VALUE) {
+                            mTrack.add(time, lat, lon);
+                        }
+                        inPoint = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the valid RMC sentences, the only ones with both date and time.
+     */
+    private void loadNmea(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 6 || line.charAt(0) != '$' || !line.startsWith("RMC", 3)) {
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                if (fields.length < 10 || !fields[2].equals("A") || fields[1].length() < 6 || fields[9].length() != 6) {
+                    continue;
+                }
+
+                String time = fields[1];
+                String date = fields[9];
+                long epochDay = LocalDate.of(
+                        2000 + getDigits(date, 4, 6),
+                        getDigits(date, 2, 4),
+                        getDigits(date, 0, 2)).toEpochDay();
+                double seconds = Double.parseDouble(time.substring(4));
+                long millis = epochDay * 86400000L
+                        + getDigits(time, 0, 2) * 3600000L
+                        + getDigits(time, 2, 4) * 60000L
+                        + Math.round(seconds * 1000);
+
+                mTrack.add(millis, getDegrees(fields[3], fields[4]), getDegrees(fields[5], fields[6]));
+            }
+        }
+    }
+
+    /**
+     * Parses an ISO 8601 time, the common yyyy-MM-ddTHH:mm:ssZ form without
+     * going through a formatter.
+     */
+    private long parseTime(String text) {
+        int length = text.length();
+        if (length == 20 && text.charAt(19) == 'Z' && text.charAt(10) == 'T') {
+            try {
+                long epochDay = LocalDate.of(
+                        getDigits(text, 0, 4),
+                        getDigits(text, 5, 7),
+                        getDigits(text, 8, 10)).toEpochDay();
+
+                return epochDay * 86400000L
+                        + getDigits(text, 11, 13) * 3600000L
+                        + getDigits(text, 14, 16) * 60000L
+                        + getDigits(text, 17, 19) * 1000L;
+            } catch (RuntimeException ex) {
+                //try the formatter
+            }
+        }
+
+        try {
+            TemporalAccessor temporal = DateTimeFormatter.ISO_DATE_TIME.parseBest(text, OffsetDateTime::from, LocalDateTime::from);
+            if (temporal instanceof OffsetDateTime) {
+                return ((OffsetDateTime) temporal).toInstant().toEpochMilli();
+            }
+
+            return ((LocalDateTime) temporal).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.apache.commons.lang3.StringUtils;
 import se.trixon.almond.util.BooleanHelper;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.SystemHelper;
+import se.trixon.mapollage.Options;
 import se.trixon.mapollage.ui.OptionsPanel;
 
 /**
@@ -147,6 +148,13 @@ public class Profile extends ProfileBase implements Comparable<Profile>, Cloneab
         return valid;
     }
 
+    /**
+     * @return true if the destination is a KMZ archive
+     */
+    public boolean isKmz() {
+        return mDestinationFile != null && StringUtils.endsWithIgnoreCase(mDestinationFile.getName(), ".kmz");
+    }
+
     @Override
     public boolean isValid() {
         sValidationErrorBuilder = new StringBuilder();
@@ -284,9 +292,17 @@ public class Profile extends ProfileBase implements Comparable<Profile>, Cloneab
         values.put(Dict.CALENDAR_LANGUAGE.toString(), mOptions.getLocale().getDisplayName());
         values.put(Dict.THUMBNAIL.toString(), String.valueOf(mOptions.getThumbnailSize()));
         values.put(Dict.BORDER_SIZE.toString(), String.valueOf(mOptions.getThumbnailBorderSize()));
+        values.put(bundle.getString("OptionsPanel.embeddedThumbnailCheckBox"), BooleanHelper.asYesNo(mOptions.isEmbeddedThumbnail()));
         values.put(String.format("%s %s", Dict.DEFAULT.toString(), Dict.LATITUDE.toString()), String.valueOf(mOptions.getDefaultLat()));
         values.put(String.format("%s %s", Dict.DEFAULT.toString(), Dict.LONGITUDE.toString()), String.valueOf(mOptions.getDefaultLon()));
         values.put(bundle.getString("ProgressPanel.autoOpenCheckBox"), BooleanHelper.asYesNo(mOptions.isAutoOpen()));
+        values.put(bundle.getString("OptionsPanel.threadsLabel"), String.valueOf(mOptions.getThreads()));
+        values.put(bundle.getString("OptionsPanel.metadataCacheCheckBox"), BooleanHelper.asYesNo(mOptions.isMetadataCache()));
+        values.put(bundle.getString("OptionsPanel.incrementalCheckBox"), BooleanHelper.asYesNo(mOptions.isIncremental()));
+        values.put(bundle.getString("OptionsPanel.imageIdLabel"), mOptions.getImageId() == Options.ImageId.HEADER
+                ? bundle.getString("OptionsPanel.imageIdHeader")
+                : bundle.getString("OptionsPanel.imageIdChecksum"));
+        values.put(bundle.getString("OptionsPanel.streamingCheckBox"), BooleanHelper.asYesNo(mOptions.isStreaming()));
 
         profileInfo.setTitle(Dict.OPTIONS.toString());
         profileInfo.setValues(values);
@@ -16,9 +16,9 @@
 package se.trixon.mapollage.profile;
 
 import com.google.gson.annotations.SerializedName;
-import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import se.trixon.almond.util.Dict;
+import se.trixon.mapollage.DateFormatter;
 
 /**
  *
@@ -31,7 +31,7 @@ public class ProfileFolder extends ProfileBase {
 
     @SerializedName("date_pattern")
     private String mDatePattern = "yyyy-ww";
-    private transient SimpleDateFormat mFolderDateFormat;
+    private transient DateFormatter mFolderDateFormat;
     @SerializedName("folders_by")
     private FolderBy mFoldersBy = FolderBy.DIR;
     private transient final Profile mProfile;
@@ -52,7 +52,7 @@ public class ProfileFolder extends ProfileBase {
         return mDatePattern;
     }
 
-    public SimpleDateFormat getFolderDateFormat() {
+    public DateFormatter getFolderDateFormat() {
         return mFolderDateFormat;
     }
 
@@ -91,7 +91,7 @@ public class ProfileFolder extends ProfileBase {
 
         if (mFoldersBy == FolderBy.DATE) {
             try {
-                mFolderDateFormat = new SimpleDateFormat(mDatePattern, mOptions.getLocale());
+                mFolderDateFormat = DateFormatter.ofPattern(mDatePattern, mOptions.getLocale());
             } catch (IllegalArgumentException e) {
                 addValidationError(String.format(BUNDLE.getString("invalid_value"), FOLDER_NAME, mDatePattern));
                 valid = false;
@@ -105,7 +105,7 @@ public class ProfileFolder extends ProfileBase {
         mDatePattern = datePattern;
     }
 
-    public void setFolderDateFormat(SimpleDateFormat folderDateFormat) {
+    public void setFolderDateFormat(DateFormatter folderDateFormat) {
         mFolderDateFormat = folderDateFormat;
     }
 
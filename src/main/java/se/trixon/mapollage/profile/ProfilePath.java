@@ -30,9 +30,21 @@ public class ProfilePath extends ProfileBase {
     private boolean mDrawPath = true;
     @SerializedName("draw_polygon")
     private boolean mDrawPolygon = true;
+    @SerializedName("polygon_edge")
+    private int mPolygonEdge = 1000;
+    @SerializedName("polygon_shape")
+    private PolygonShape mPolygonShape = PolygonShape.CONVEX;
     private transient final Profile mProfile;
+    @SerializedName("simplify")
+    private boolean mSimplify = false;
+    @SerializedName("simplify_tolerance")
+    private int mSimplifyTolerance = 10;
     @SerializedName("split_by")
     private SplitBy mSplitBy = SplitBy.MONTH;
+    @SerializedName("split_gap")
+    private int mSplitGap = 60;
+    @SerializedName("split_speed")
+    private int mSplitSpeed = 500;
     @SerializedName("width")
     private Double mWidth = 2.0;
 
@@ -40,10 +52,43 @@ public class ProfilePath extends ProfileBase {
         mProfile = profile;
     }
 
+    /**
+     * @return the length in meters above which a concave polygon cuts in
+     */
+    public int getPolygonEdge() {
+        return mPolygonEdge;
+    }
+
+    public PolygonShape getPolygonShape() {
+        return mPolygonShape;
+    }
+
+    /**
+     * @return the distance in meters a simplified path may deviate from the
+     * photos
+     */
+    public int getSimplifyTolerance() {
+        return mSimplifyTolerance;
+    }
+
     public SplitBy getSplitBy() {
         return mSplitBy;
     }
 
+    /**
+     * @return the time in minutes between photos that starts a new path
+     */
+    public int getSplitGap() {
+        return mSplitGap;
+    }
+
+    /**
+     * @return the speed in km/h between photos that starts a new path
+     */
+    public int getSplitSpeed() {
+        return mSplitSpeed;
+    }
+
     @Override
     public String getTitle() {
         return Dict.PATH_GFX.toString();
@@ -61,6 +106,10 @@ public class ProfilePath extends ProfileBase {
         return mDrawPolygon;
     }
 
+    public boolean isSimplify() {
+        return mSimplify;
+    }
+
     @Override
     public boolean isValid() {
         return true;
@@ -74,10 +123,34 @@ public class ProfilePath extends ProfileBase {
         mDrawPolygon = drawPolygon;
     }
 
+    public void setPolygonEdge(int polygonEdge) {
+        mPolygonEdge = polygonEdge;
+    }
+
+    public void setPolygonShape(PolygonShape polygonShape) {
+        mPolygonShape = polygonShape;
+    }
+
+    public void setSimplify(boolean simplify) {
+        mSimplify = simplify;
+    }
+
+    public void setSimplifyTolerance(int simplifyTolerance) {
+        mSimplifyTolerance = simplifyTolerance;
+    }
+
     public void setSplitBy(SplitBy splitBy) {
         mSplitBy = splitBy;
     }
 
+    public void setSplitGap(int splitGap) {
+        mSplitGap = splitGap;
+    }
+
+    public void setSplitSpeed(int splitSpeed) {
+        mSplitSpeed = splitSpeed;
+    }
+
     public void setWidth(Double width) {
         mWidth = width;
     }
@@ -96,6 +169,8 @@ public class ProfilePath extends ProfileBase {
                 return Dict.Time.MONTH.toString();
             case YEAR:
                 return Dict.Time.YEAR.toString();
+            case GAP:
+                return BUNDLE_UI.getString("PathTab.splitByGapRadioButton");
             default:
                 return null;
         }
@@ -106,10 +181,25 @@ public class ProfilePath extends ProfileBase {
         ProfileInfo profileInfo = new ProfileInfo();
         LinkedHashMap<String, String> values = new LinkedHashMap<>();
         values.put(BUNDLE_UI.getString("PathTab.drawPolygonCheckBox"), BooleanHelper.asYesNo(mDrawPolygon));
+        if (mDrawPolygon) {
+            boolean concave = mPolygonShape == PolygonShape.CONCAVE;
+            values.put(BUNDLE_UI.getString("PathTab.polygonShapeLabel"), BUNDLE_UI.getString(concave ? "PathTab.concaveRadioButton" : "PathTab.convexRadioButton"));
+            if (concave) {
+                values.put(BUNDLE_UI.getString("PathTab.polygonEdgeLabel"), String.valueOf(mPolygonEdge));
+            }
+        }
         values.put(BUNDLE_UI.getString("PathTab.drawPathCheckBox"), BooleanHelper.asYesNo(mDrawPath));
         values.put(Dict.WIDTH.toString(), String.valueOf(mWidth));
+        values.put(BUNDLE_UI.getString("PathTab.simplifyCheckBox"), BooleanHelper.asYesNo(mSimplify));
+        if (mSimplify) {
+            values.put(BUNDLE_UI.getString("PathTab.simplifyToleranceLabel"), String.valueOf(mSimplifyTolerance));
+        }
 
         values.put(Dict.SPLIT_BY.toString(), getLabel(mSplitBy));
+        if (mSplitBy == SplitBy.GAP) {
+            values.put(BUNDLE_UI.getString("PathTab.splitGapLabel"), String.valueOf(mSplitGap));
+            values.put(BUNDLE_UI.getString("PathTab.splitSpeedLabel"), String.valueOf(mSplitSpeed));
+        }
 
         profileInfo.setTitle(getTitle());
         profileInfo.setValues(values);
@@ -117,12 +207,18 @@ public class ProfilePath extends ProfileBase {
         return profileInfo;
     }
 
+    public enum PolygonShape {
+        CONVEX,
+        CONCAVE;
+    }
+
     public enum SplitBy {
         NONE,
         HOUR,
         DAY,
         WEEK,
         MONTH,
-        YEAR;
+        YEAR,
+        GAP;
     }
 }
@@ -16,10 +16,11 @@
 package se.trixon.mapollage.profile;
 
 import com.google.gson.annotations.SerializedName;
-import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import org.apache.commons.cli.CommandLine;
+import se.trixon.almond.util.BooleanHelper;
 import se.trixon.almond.util.Dict;
+import se.trixon.mapollage.DateFormatter;
 
 /**
  *
@@ -30,8 +31,16 @@ public class ProfilePlacemark extends ProfileBase {
     private static final String COORDINATE = "coordinate";
     private static final String PLACEMARK_NAME = "placemark-name";
 
+    @SerializedName("cluster")
+    private boolean mCluster = false;
+    @SerializedName("collapse")
+    private boolean mCollapse = false;
+    @SerializedName("collapse_distance")
+    private int mCollapseDistance = 10;
+    @SerializedName("collapse_time")
+    private int mCollapseTime = 60;
     private transient String[] mCoordinate;
-    private transient SimpleDateFormat mDateFormat;
+    private transient DateFormatter mDateFormat;
     @SerializedName("date_pattern")
     private String mDatePattern = "yyyy-MM-dd HH.mm";
     @SerializedName("name_by")
@@ -41,6 +50,8 @@ public class ProfilePlacemark extends ProfileBase {
     private Double mScale = 3.0;
     @SerializedName("symbol_as")
     private SymbolAs mSymbolAs = SymbolAs.PHOTO;
+    @SerializedName("tiled")
+    private boolean mTiled = false;
     @SerializedName("time_stamp")
     private boolean mTimestamp = true;
     @SerializedName("zoom")
@@ -59,11 +70,25 @@ public class ProfilePlacemark extends ProfileBase {
         mCoordinate = commandLine.getOptionValues(COORDINATE);
     }
 
+    /**
+     * @return the distance in meters within which photos are collapsed
+     */
+    public int getCollapseDistance() {
+        return mCollapseDistance;
+    }
+
+    /**
+     * @return the time in seconds within which photos are collapsed
+     */
+    public int getCollapseTime() {
+        return mCollapseTime;
+    }
+
     public String[] getCoordinate() {
         return mCoordinate;
     }
 
-    public SimpleDateFormat getDateFormat() {
+    public DateFormatter getDateFormat() {
         return mDateFormat;
     }
 
@@ -92,10 +117,22 @@ public class ProfilePlacemark extends ProfileBase {
         return mZoom;
     }
 
+    public boolean isCluster() {
+        return mCluster;
+    }
+
+    public boolean isCollapse() {
+        return mCollapse;
+    }
+
     public boolean isSymbolAsPhoto() {
         return mSymbolAs == SymbolAs.PHOTO;
     }
 
+    public boolean isTiled() {
+        return mTiled;
+    }
+
     public boolean isTimestamp() {
         return mTimestamp;
     }
@@ -104,7 +141,7 @@ public class ProfilePlacemark extends ProfileBase {
     public boolean isValid() {
         if (mNameBy == NameBy.DATE) {
             try {
-                mDateFormat = new SimpleDateFormat(mDatePattern, mOptions.getLocale());
+                mDateFormat = DateFormatter.ofPattern(mDatePattern, mOptions.getLocale());
             } catch (IllegalArgumentException e) {
                 addValidationError(String.format(BUNDLE.getString("invalid_value"), PLACEMARK_NAME, mDatePattern));
             }
@@ -113,11 +150,27 @@ public class ProfilePlacemark extends ProfileBase {
         return true;
     }
 
+    public void setCluster(boolean cluster) {
+        mCluster = cluster;
+    }
+
+    public void setCollapse(boolean collapse) {
+        mCollapse = collapse;
+    }
+
+    public void setCollapseDistance(int collapseDistance) {
+        mCollapseDistance = collapseDistance;
+    }
+
+    public void setCollapseTime(int collapseTime) {
+        mCollapseTime = collapseTime;
+    }
+
     public void setCoordinate(String[] coordinate) {
         mCoordinate = coordinate;
     }
 
-    public void setDateFormat(SimpleDateFormat dateFormat) {
+    public void setDateFormat(DateFormatter dateFormat) {
         mDateFormat = dateFormat;
     }
 
@@ -137,6 +190,10 @@ public class ProfilePlacemark extends ProfileBase {
         mSymbolAs = symbolAs;
     }
 
+    public void setTiled(boolean tiled) {
+        mTiled = tiled;
+    }
+
     public void setTimestamp(boolean timestamp) {
         mTimestamp = timestamp;
     }
@@ -166,6 +223,13 @@ public class ProfilePlacemark extends ProfileBase {
         values.put(Dict.SYMBOL.toString(), mSymbolAs == SymbolAs.PHOTO ? Dict.PHOTO.toString() : Dict.PIN.toString());
         values.put(Dict.SCALE.toString(), String.valueOf(mScale));
         values.put(Dict.ZOOM.toString(), String.valueOf(mZoom));
+        values.put(BUNDLE_UI.getString("PlacemarkTab.tiledCheckBox"), BooleanHelper.asYesNo(mTiled));
+        values.put(BUNDLE_UI.getString("PlacemarkTab.clusterCheckBox"), BooleanHelper.asYesNo(mTiled && mCluster));
+        values.put(BUNDLE_UI.getString("PlacemarkTab.collapseCheckBox"), BooleanHelper.asYesNo(mCollapse));
+        if (mCollapse) {
+            values.put(BUNDLE_UI.getString("PlacemarkTab.collapseDistanceLabel"), String.valueOf(mCollapseDistance));
+            values.put(BUNDLE_UI.getString("PlacemarkTab.collapseTimeLabel"), String.valueOf(mCollapseTime));
+        }
 
         profileInfo.setTitle(getTitle());
         profileInfo.setValues(values);
@@ -44,6 +44,12 @@ public class ProfileSource extends ProfileBase {
     private transient final Profile mProfile;
     @SerializedName("recursive")
     private boolean mRecursive = true;
+    @SerializedName("track_log")
+    private boolean mTrackLog = false;
+    @SerializedName("track_log_dir")
+    private File mTrackLogDir;
+    @SerializedName("track_log_offset")
+    private int mTrackLogOffset = 300;
 
     public ProfileSource(Profile profile) {
         mProfile = profile;
@@ -70,6 +76,22 @@ public class ProfileSource extends ProfileBase {
         return Dict.SOURCE.toString();
     }
 
+    /**
+     * @return the directory of the GPX and NMEA logs used to locate photos
+     * without a position
+     */
+    public File getTrackLogDir() {
+        return mTrackLogDir;
+    }
+
+    /**
+     * @return the max time in seconds between a photo and a point of the
+     * track logs
+     */
+    public int getTrackLogOffset() {
+        return mTrackLogOffset;
+    }
+
     public boolean isFollowLinks() {
         return mFollowLinks;
     }
@@ -82,6 +104,10 @@ public class ProfileSource extends ProfileBase {
         return mRecursive;
     }
 
+    public boolean isTrackLog() {
+        return mTrackLog;
+    }
+
     @Override
     public boolean isValid() {
         try {
@@ -90,6 +116,10 @@ public class ProfileSource extends ProfileBase {
             addValidationError("invalid file pattern: " + mFilePattern);
         }
 
+        if (mTrackLog && (mTrackLogDir == null || !mTrackLogDir.isDirectory())) {
+            addValidationError("invalid track log directory: " + mTrackLogDir);
+        }
+
         return true;
     }
 
@@ -117,6 +147,18 @@ public class ProfileSource extends ProfileBase {
         mRecursive = recursive;
     }
 
+    public void setTrackLog(boolean trackLog) {
+        mTrackLog = trackLog;
+    }
+
+    public void setTrackLogDir(File trackLogDir) {
+        mTrackLogDir = trackLogDir;
+    }
+
+    public void setTrackLogOffset(int trackLogOffset) {
+        mTrackLogOffset = trackLogOffset;
+    }
+
     @Override
     protected ProfileInfo getProfileInfo() {
         ProfileInfo profileInfo = new ProfileInfo();
@@ -127,6 +169,11 @@ public class ProfileSource extends ProfileBase {
         values.put(Dict.FOLLOW_LINKS.toString(), BooleanHelper.asYesNo(mFollowLinks));
         values.put(BUNDLE_UI.getString("SourceTab.includeNullCoordinateCheckBox"), BooleanHelper.asYesNo(mIncludeNullCoordinate));
         values.put(BUNDLE_UI.getString("SourceTab.excludeLabel"), mExcludePattern);
+        values.put(BUNDLE_UI.getString("SourceTab.trackLogCheckBox"), BooleanHelper.asYesNo(mTrackLog));
+        if (mTrackLog) {
+            values.put(BUNDLE_UI.getString("SourceTab.trackLogChooserPanel.header"), mTrackLogDir == null ? "" : mTrackLogDir.getAbsolutePath());
+            values.put(BUNDLE_UI.getString("SourceTab.trackLogOffsetLabel"), String.valueOf(mTrackLogOffset));
+        }
 
         profileInfo.setTitle(getTitle());
         profileInfo.setValues(values);
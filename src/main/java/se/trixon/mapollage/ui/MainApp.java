@@ -123,6 +123,7 @@ public class MainApp extends Application {
     private ListView<Profile> mListView;
     private Action mLogAction;
     private Button mOpenButton;
+    private Operation mOperation;
     private OperationListener mOperationListener;
     private Thread mOperationThread;
     private final Options mOptions = Options.getInstance();
@@ -244,7 +245,7 @@ public class MainApp extends Application {
 
         //cancel
         mCancelAction = new Action(Dict.CANCEL.toString(), (ActionEvent event) -> {
-            mOperationThread.interrupt();
+            mOperation.cancel();
         });
         mCancelAction.setGraphic(mFontAwesome.create(FontAwesome.Glyph.BAN).size(ICON_SIZE_TOOLBAR).color(mIconColor));
 
@@ -492,9 +493,11 @@ public class MainApp extends Application {
 
     private void requestKmlFileObject(Profile profile) {
         ExtensionFilter filter = new ExtensionFilter("Keyhole Markup Language (*.kml)", "*.kml");
+        ExtensionFilter kmzFilter = new ExtensionFilter("Keyhole Markup Language, zipped (*.kmz)", "*.kmz");
         SimpleDialog.clearFilters();
         SimpleDialog.addFilter(new ExtensionFilter(Dict.ALL_FILES.toString(), "*"));
         SimpleDialog.addFilter(filter);
+        SimpleDialog.addFilter(kmzFilter);
         SimpleDialog.setFilter(filter);
         SimpleDialog.setOwner(mStage);
         SimpleDialog.setTitle(String.format("%s %s", Dict.SAVE.toString(), profile.getName()));
@@ -506,7 +509,7 @@ public class MainApp extends Application {
             SimpleDialog.setSelectedFile(new File(""));
         }
 
-        if (SimpleDialog.saveFile(new String[]{"kml"})) {
+        if (SimpleDialog.saveFile(new String[]{"kml", "kmz"})) {
             mDestination = SimpleDialog.getPath();
             profile.setDestinationFile(mDestination);
             profile.isValid();
@@ -517,8 +520,8 @@ public class MainApp extends Application {
                 mIndicator.setProfile(profile);
                 mLastRunProfile = profile;
 
-                Operation operation = new Operation(mOperationListener, profile);
-                mOperationThread = new Thread(operation);
+                mOperation = new Operation(mOperationListener, profile);
+                mOperationThread = new Thread(mOperation);
                 mOperationThread.start();
             } else {
                 mProgressPanel.out(mBundle.getString("invalid_relative_source_dest"));
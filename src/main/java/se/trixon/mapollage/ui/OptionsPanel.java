@@ -18,6 +18,7 @@ package se.trixon.mapollage.ui;
 import java.util.ResourceBundle;
 import javafx.geometry.Insets;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Spinner;
 import javafx.scene.layout.GridPane;
@@ -37,14 +38,18 @@ import se.trixon.mapollage.Options;
 public class OptionsPanel extends GridPane {
 
     private final ResourceBundle mBundle = SystemHelper.getBundle(OptionsPanel.class, "Bundle");
-    private final CheckBox mCleanNs2CheckBox = new CheckBox(mBundle.getString("OptionsPanel.cleanNs2CheckBox"));
-    private final CheckBox mCleanSpaceCheckBox = new CheckBox(mBundle.getString("OptionsPanel.cleanSpaceCheckBox"));
     private final Font mDefaultFont = Font.getDefault();
     private final Spinner<Double> mDefaultLongitudeSpinner = new Spinner(-180, 180, 0, 0.01);
     private final Spinner<Double> mDefaultLatitudeSpinner = new Spinner(-90, 90, 0, 0.01);
+    private final CheckBox mEmbeddedThumbnailCheckBox = new CheckBox(mBundle.getString("OptionsPanel.embeddedThumbnailCheckBox"));
+    private final ComboBox<String> mImageIdComboBox = new ComboBox<>();
+    private final CheckBox mIncrementalCheckBox = new CheckBox(mBundle.getString("OptionsPanel.incrementalCheckBox"));
     private final LocaleComboBox mLocaleComboBox = new LocaleComboBox();
     private final CheckBox mLogKmlCheckBox = new CheckBox(mBundle.getString("OptionsPanel.logKmlCheckBox"));
+    private final CheckBox mMetadataCacheCheckBox = new CheckBox(mBundle.getString("OptionsPanel.metadataCacheCheckBox"));
     private final Options mOptions = Options.getInstance();
+    private final CheckBox mStreamingCheckBox = new CheckBox(mBundle.getString("OptionsPanel.streamingCheckBox"));
+    private final Spinner<Integer> mThreadsSpinner = new Spinner(1, 256, Runtime.getRuntime().availableProcessors(), 1);
     private final Spinner<Integer> mThumbnailBorderSizeSpinner = new Spinner(0, 20, 2, 1);
     private final Spinner<Integer> mThumbnailSizeSpinner = new Spinner(100, 1200, 250, 10);
     private final Insets mTopInsets = new Insets(8, 0, 0, 0);
@@ -81,24 +86,32 @@ public class OptionsPanel extends GridPane {
         Label latitudeLabel = new Label(Dict.LATITUDE.toString());
         Label longitudeLabel = new Label(Dict.LONGITUDE.toString());
         Label borderSizeLabel = new Label(mBundle.getString("OptionsPanel.borderSizeLabel"));
-        Label cleanLabel = new Label(mBundle.getString("OptionsPanel.cleanLabel"));
         Label defaultCoordinateLabel = new Label(mBundle.getString("OptionsPanel.coordinateLabel"));
+        Label performanceLabel = new Label(mBundle.getString("OptionsPanel.performanceLabel"));
+        Label threadsLabel = new Label(mBundle.getString("OptionsPanel.threadsLabel"));
+        Label imageIdLabel = new Label(mBundle.getString("OptionsPanel.imageIdLabel"));
 
         placemarkLabel.setFont(font);
         defaultCoordinateLabel.setFont(font);
-        cleanLabel.setFont(font);
         logLabel.setFont(font);
+        performanceLabel.setFont(font);
 
         mDefaultLongitudeSpinner.setEditable(true);
         mDefaultLatitudeSpinner.setEditable(true);
         mThumbnailSizeSpinner.setEditable(true);
         mThumbnailBorderSizeSpinner.setEditable(true);
+        mThreadsSpinner.setEditable(true);
+        mImageIdComboBox.getItems().addAll(
+                mBundle.getString("OptionsPanel.imageIdChecksum"),
+                mBundle.getString("OptionsPanel.imageIdHeader")
+        );
 
         FxHelper.autoCommitSpinners(
                 mDefaultLatitudeSpinner,
                 mDefaultLongitudeSpinner,
                 mThumbnailBorderSizeSpinner,
-                mThumbnailSizeSpinner
+                mThumbnailSizeSpinner,
+                mThreadsSpinner
         );
 
         addColumn(0,
@@ -109,14 +122,20 @@ public class OptionsPanel extends GridPane {
                 mThumbnailSizeSpinner,
                 borderSizeLabel,
                 mThumbnailBorderSizeSpinner,
+                mEmbeddedThumbnailCheckBox,
                 defaultCoordinateLabel,
                 latitudeLabel,
                 mDefaultLatitudeSpinner,
                 longitudeLabel,
                 mDefaultLongitudeSpinner,
-                cleanLabel,
-                mCleanNs2CheckBox,
-                mCleanSpaceCheckBox,
+                performanceLabel,
+                threadsLabel,
+                mThreadsSpinner,
+                mMetadataCacheCheckBox,
+                mIncrementalCheckBox,
+                mStreamingCheckBox,
+                imageIdLabel,
+                mImageIdComboBox,
                 logLabel,
                 mWordWrapCheckBox,
                 mLogKmlCheckBox
@@ -127,12 +146,14 @@ public class OptionsPanel extends GridPane {
                 defaultCoordinateLabel,
                 borderSizeLabel,
                 longitudeLabel,
-                cleanLabel,
+                performanceLabel,
+                imageIdLabel,
                 logLabel
         );
 
         addTopMargin(
-                mCleanSpaceCheckBox,
+                mEmbeddedThumbnailCheckBox,
+                mMetadataCacheCheckBox,
                 mLogKmlCheckBox
         );
     }
@@ -140,24 +161,32 @@ public class OptionsPanel extends GridPane {
     private void load() {
         mLocaleComboBox.setLocale(mOptions.getLocale());
         mWordWrapCheckBox.setSelected(mOptions.isWordWrap());
-        mCleanNs2CheckBox.setSelected(mOptions.isCleanNs2());
-        mCleanSpaceCheckBox.setSelected(mOptions.isCleanSpace());
         mDefaultLatitudeSpinner.getValueFactory().setValue(mOptions.getDefaultLat());
         mDefaultLongitudeSpinner.getValueFactory().setValue(mOptions.getDefaultLon());
         mLogKmlCheckBox.setSelected(mOptions.isLogKml());
         mThumbnailSizeSpinner.getValueFactory().setValue(mOptions.getThumbnailSize());
         mThumbnailBorderSizeSpinner.getValueFactory().setValue(mOptions.getThumbnailBorderSize());
+        mEmbeddedThumbnailCheckBox.setSelected(mOptions.isEmbeddedThumbnail());
+        mThreadsSpinner.getValueFactory().setValue(mOptions.getThreads());
+        mMetadataCacheCheckBox.setSelected(mOptions.isMetadataCache());
+        mIncrementalCheckBox.setSelected(mOptions.isIncremental());
+        mStreamingCheckBox.setSelected(mOptions.isStreaming());
+        mImageIdComboBox.getSelectionModel().select(mOptions.getImageId().ordinal());
     }
 
     void save() {
         mOptions.setLocale(mLocaleComboBox.getLocale());
         mOptions.setWordWrap(mWordWrapCheckBox.isSelected());
-        mOptions.setCleanNs2(mCleanNs2CheckBox.isSelected());
-        mOptions.setCleanSpace(mCleanSpaceCheckBox.isSelected());
         mOptions.setDefaultLat(mDefaultLatitudeSpinner.getValue());
         mOptions.setDefaultLon(mDefaultLongitudeSpinner.getValue());
         mOptions.setLogKml(mLogKmlCheckBox.isSelected());
         mOptions.setThumbnailSize(mThumbnailSizeSpinner.getValue());
         mOptions.setThumbnailBorderSize(mThumbnailBorderSizeSpinner.getValue());
+        mOptions.setEmbeddedThumbnail(mEmbeddedThumbnailCheckBox.isSelected());
+        mOptions.setThreads(mThreadsSpinner.getValue());
+        mOptions.setMetadataCache(mMetadataCacheCheckBox.isSelected());
+        mOptions.setIncremental(mIncrementalCheckBox.isSelected());
+        mOptions.setStreaming(mStreamingCheckBox.isSelected());
+        mOptions.setImageId(Options.ImageId.values()[mImageIdComboBox.getSelectionModel().getSelectedIndex()]);
     }
 }
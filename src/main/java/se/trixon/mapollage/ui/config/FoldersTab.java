@@ -15,9 +15,7 @@
  */
 package se.trixon.mapollage.ui.config;
 
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -37,6 +35,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.controlsfx.glyphfont.FontAwesome;
 import org.controlsfx.validation.Validator;
 import se.trixon.almond.util.Dict;
+import se.trixon.mapollage.DateFormatter;
 import se.trixon.mapollage.profile.Profile;
 import se.trixon.mapollage.profile.ProfileFolder;
 import se.trixon.mapollage.profile.ProfileFolder.FolderBy;
@@ -250,8 +249,8 @@ public class FoldersTab extends BaseTab {
         String datePreview;
 
         try {
-            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(mDatePatternComboBox.getValue(), mOptions.getLocale());
-            datePreview = simpleDateFormat.format(new Date(System.currentTimeMillis()));
+            DateFormatter dateFormatter = DateFormatter.ofPattern(mDatePatternComboBox.getValue(), mOptions.getLocale());
+            datePreview = dateFormatter.format(System.currentTimeMillis());
         } catch (IllegalArgumentException ex) {
             datePreview = Dict.Dialog.ERROR.toString();
             validFormat = false;
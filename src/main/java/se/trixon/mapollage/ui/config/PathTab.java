@@ -21,12 +21,14 @@ import javafx.scene.control.RadioButton;
 import javafx.scene.control.Spinner;
 import javafx.scene.control.Toggle;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.VBox;
 import org.controlsfx.glyphfont.FontAwesome;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.fx.FxHelper;
 import se.trixon.mapollage.profile.Profile;
 import se.trixon.mapollage.profile.ProfilePath;
+import se.trixon.mapollage.profile.ProfilePath.PolygonShape;
 import se.trixon.mapollage.profile.ProfilePath.SplitBy;
 
 /**
@@ -35,14 +37,23 @@ import se.trixon.mapollage.profile.ProfilePath.SplitBy;
  */
 public class PathTab extends BaseTab {
 
+    private final RadioButton mConcaveRadioButton = new RadioButton(mBundle.getString("PathTab.concaveRadioButton"));
+    private final RadioButton mConvexRadioButton = new RadioButton(mBundle.getString("PathTab.convexRadioButton"));
     private final CheckBox mDrawPathCheckBox = new CheckBox(mBundle.getString("PathTab.drawPathCheckBox"));
     private final CheckBox mDrawPolygonCheckBox = new CheckBox(mBundle.getString("PathTab.drawPolygonCheckBox"));
+    private final Spinner<Integer> mPolygonEdgeSpinner = new Spinner(10, 100000, 1000, 10);
+    private final ToggleGroup mPolygonShapeToggleGroup = new ToggleGroup();
+    private final CheckBox mSimplifyCheckBox = new CheckBox(mBundle.getString("PathTab.simplifyCheckBox"));
+    private final Spinner<Integer> mSimplifyToleranceSpinner = new Spinner(1, 1000, 10, 1);
     private final RadioButton mSplitByDayRadioButton = new RadioButton(Dict.Time.DAY.toString());
+    private final RadioButton mSplitByGapRadioButton = new RadioButton(mBundle.getString("PathTab.splitByGapRadioButton"));
     private final RadioButton mSplitByHourRadioButton = new RadioButton(Dict.Time.HOUR.toString());
     private final RadioButton mSplitByMonthRadioButton = new RadioButton(Dict.Time.MONTH.toString());
     private final RadioButton mSplitByNoneRadioButton = new RadioButton(Dict.DO_NOT_SPLIT.toString());
     private final RadioButton mSplitByWeekRadioButton = new RadioButton(Dict.Time.WEEK.toString());
     private final RadioButton mSplitByYearRadioButton = new RadioButton(Dict.Time.YEAR.toString());
+    private final Spinner<Integer> mSplitGapSpinner = new Spinner(1, 10080, 60, 1);
+    private final Spinner<Integer> mSplitSpeedSpinner = new Spinner(1, 2000, 500, 10);
     private final ToggleGroup mToggleGroup = new ToggleGroup();
     private final Spinner<Double> mWidthSpinner = new Spinner(1.0, 10.0, 1.0, 0.1);
 
@@ -59,8 +70,26 @@ public class PathTab extends BaseTab {
         ProfilePath p = mProfile.getPath();
 
         mDrawPolygonCheckBox.setSelected(p.isDrawPolygon());
+        if (p.getPolygonShape() == PolygonShape.CONCAVE) {
+            mConcaveRadioButton.setSelected(true);
+        } else {
+            mConvexRadioButton.setSelected(true);
+        }
+        if (p.getPolygonEdge() > 0) {
+            mPolygonEdgeSpinner.getValueFactory().setValue(p.getPolygonEdge());
+        }
         mDrawPathCheckBox.setSelected(p.isDrawPath());
         mWidthSpinner.getValueFactory().setValue(p.getWidth());
+        mSimplifyCheckBox.setSelected(p.isSimplify());
+        if (p.getSimplifyTolerance() > 0) {
+            mSimplifyToleranceSpinner.getValueFactory().setValue(p.getSimplifyTolerance());
+        }
+        if (p.getSplitGap() > 0) {
+            mSplitGapSpinner.getValueFactory().setValue(p.getSplitGap());
+        }
+        if (p.getSplitSpeed() > 0) {
+            mSplitSpeedSpinner.getValueFactory().setValue(p.getSplitSpeed());
+        }
 
         RadioButton splitByRadioButton;
 
@@ -85,6 +114,10 @@ public class PathTab extends BaseTab {
                 splitByRadioButton = mSplitByYearRadioButton;
                 break;
 
+            case GAP:
+                splitByRadioButton = mSplitByGapRadioButton;
+                break;
+
             case NONE:
                 splitByRadioButton = mSplitByNoneRadioButton;
                 break;
@@ -101,8 +134,14 @@ public class PathTab extends BaseTab {
         ProfilePath p = mProfile.getPath();
 
         p.setDrawPolygon(mDrawPolygonCheckBox.isSelected());
+        p.setPolygonShape(mConcaveRadioButton.isSelected() ? PolygonShape.CONCAVE : PolygonShape.CONVEX);
+        p.setPolygonEdge(mPolygonEdgeSpinner.getValue());
         p.setDrawPath(mDrawPathCheckBox.isSelected());
         p.setWidth(mWidthSpinner.getValue());
+        p.setSimplify(mSimplifyCheckBox.isSelected());
+        p.setSimplifyTolerance(mSimplifyToleranceSpinner.getValue());
+        p.setSplitGap(mSplitGapSpinner.getValue());
+        p.setSplitSpeed(mSplitSpeedSpinner.getValue());
 
         SplitBy splitBy = null;
         Toggle t = mToggleGroup.getSelectedToggle();
@@ -117,6 +156,8 @@ public class PathTab extends BaseTab {
             splitBy = SplitBy.MONTH;
         } else if (t == mSplitByYearRadioButton) {
             splitBy = SplitBy.YEAR;
+        } else if (t == mSplitByGapRadioButton) {
+            splitBy = SplitBy.GAP;
         } else if (t == mSplitByNoneRadioButton) {
             splitBy = SplitBy.NONE;
         }
@@ -127,50 +168,102 @@ public class PathTab extends BaseTab {
     private void createUI() {
         VBox vbox = new VBox();
         VBox pathBox = new VBox();
+        VBox polygonBox = new VBox();
 
         setContent(vbox);
+        Label polygonShapeLabel = new Label(mBundle.getString("PathTab.polygonShapeLabel"));
+        Label polygonEdgeLabel = new Label(mBundle.getString("PathTab.polygonEdgeLabel"));
         Label widthLabel = new Label(Dict.WIDTH.toString());
         Label splitByLabel = new Label(Dict.SPLIT_BY.toString());
+        Label simplifyToleranceLabel = new Label(mBundle.getString("PathTab.simplifyToleranceLabel"));
+        Label splitGapLabel = new Label(mBundle.getString("PathTab.splitGapLabel"));
+        Label splitSpeedLabel = new Label(mBundle.getString("PathTab.splitSpeedLabel"));
 
         mWidthSpinner.setEditable(true);
-        FxHelper.autoCommitSpinners(mWidthSpinner);
+        mPolygonEdgeSpinner.setEditable(true);
+        mSimplifyToleranceSpinner.setEditable(true);
+        mSplitGapSpinner.setEditable(true);
+        mSplitSpeedSpinner.setEditable(true);
+        FxHelper.autoCommitSpinners(mWidthSpinner, mPolygonEdgeSpinner, mSimplifyToleranceSpinner, mSplitGapSpinner, mSplitSpeedSpinner);
+        mSimplifyCheckBox.setTooltip(new Tooltip(mBundle.getString("PathTab.simplifyCheckBox.toolTip")));
+        simplifyToleranceLabel.disableProperty().bind(mSimplifyCheckBox.selectedProperty().not());
+        mSimplifyToleranceSpinner.disableProperty().bind(mSimplifyCheckBox.selectedProperty().not());
+
+        mConvexRadioButton.setToggleGroup(mPolygonShapeToggleGroup);
+        mConcaveRadioButton.setToggleGroup(mPolygonShapeToggleGroup);
+        mConcaveRadioButton.setTooltip(new Tooltip(mBundle.getString("PathTab.concaveRadioButton.toolTip")));
+
+        polygonBox.getChildren().addAll(
+                polygonShapeLabel,
+                mConvexRadioButton,
+                mConcaveRadioButton,
+                polygonEdgeLabel,
+                mPolygonEdgeSpinner
+        );
+        polygonBox.disableProperty().bind(mDrawPolygonCheckBox.selectedProperty().not());
+        polygonEdgeLabel.disableProperty().bind(mConcaveRadioButton.selectedProperty().not());
+        mPolygonEdgeSpinner.disableProperty().bind(mConcaveRadioButton.selectedProperty().not());
 
         mSplitByHourRadioButton.setToggleGroup(mToggleGroup);
         mSplitByDayRadioButton.setToggleGroup(mToggleGroup);
         mSplitByWeekRadioButton.setToggleGroup(mToggleGroup);
         mSplitByMonthRadioButton.setToggleGroup(mToggleGroup);
         mSplitByYearRadioButton.setToggleGroup(mToggleGroup);
+        mSplitByGapRadioButton.setToggleGroup(mToggleGroup);
         mSplitByNoneRadioButton.setToggleGroup(mToggleGroup);
+        mSplitByGapRadioButton.setTooltip(new Tooltip(mBundle.getString("PathTab.splitByGapRadioButton.toolTip")));
+        splitGapLabel.disableProperty().bind(mSplitByGapRadioButton.selectedProperty().not());
+        mSplitGapSpinner.disableProperty().bind(mSplitByGapRadioButton.selectedProperty().not());
+        splitSpeedLabel.disableProperty().bind(mSplitByGapRadioButton.selectedProperty().not());
+        mSplitSpeedSpinner.disableProperty().bind(mSplitByGapRadioButton.selectedProperty().not());
 
         pathBox.getChildren().addAll(
                 widthLabel,
                 mWidthSpinner,
+                mSimplifyCheckBox,
+                simplifyToleranceLabel,
+                mSimplifyToleranceSpinner,
                 splitByLabel,
                 mSplitByHourRadioButton,
                 mSplitByDayRadioButton,
                 mSplitByWeekRadioButton,
                 mSplitByMonthRadioButton,
                 mSplitByYearRadioButton,
+                mSplitByGapRadioButton,
+                splitGapLabel,
+                mSplitGapSpinner,
+                splitSpeedLabel,
+                mSplitSpeedSpinner,
                 mSplitByNoneRadioButton
         );
         pathBox.disableProperty().bind(mDrawPathCheckBox.selectedProperty().not());
 
         vbox.getChildren().addAll(
                 mDrawPolygonCheckBox,
+                polygonBox,
                 mDrawPathCheckBox,
                 pathBox
         );
 
         addTopPadding(
                 mDrawPolygonCheckBox,
+                polygonShapeLabel,
+                mConvexRadioButton,
+                mConcaveRadioButton,
+                polygonEdgeLabel,
                 mDrawPathCheckBox,
                 widthLabel,
+                mSimplifyCheckBox,
+                simplifyToleranceLabel,
                 splitByLabel,
                 mSplitByHourRadioButton,
                 mSplitByDayRadioButton,
                 mSplitByWeekRadioButton,
                 mSplitByMonthRadioButton,
                 mSplitByYearRadioButton,
+                mSplitByGapRadioButton,
+                splitGapLabel,
+                splitSpeedLabel,
                 mSplitByNoneRadioButton
         );
     }
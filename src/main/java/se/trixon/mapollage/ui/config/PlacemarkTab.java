@@ -25,6 +25,7 @@ import javafx.scene.control.RadioButton;
 import javafx.scene.control.Spinner;
 import javafx.scene.control.Toggle;
 import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.VBox;
 import org.controlsfx.glyphfont.FontAwesome;
 import se.trixon.almond.util.Dict;
@@ -40,6 +41,10 @@ import se.trixon.mapollage.profile.ProfilePlacemark.SymbolAs;
  */
 public class PlacemarkTab extends BaseTab {
 
+    private final CheckBox mClusterCheckBox = new CheckBox(mBundle.getString("PlacemarkTab.clusterCheckBox"));
+    private final CheckBox mCollapseCheckBox = new CheckBox(mBundle.getString("PlacemarkTab.collapseCheckBox"));
+    private final Spinner<Integer> mCollapseDistanceSpinner = new Spinner(1, 1000, 10, 1);
+    private final Spinner<Integer> mCollapseTimeSpinner = new Spinner(1, 3600, 60, 1);
     private final ComboBox<String> mDatePatternComboBox = new ComboBox<>();
     private final RadioButton mNameByDateRadioButton = new RadioButton(Dict.DATE_PATTERN.toString());
     private final RadioButton mNameByFileRadioButton = new RadioButton(Dict.FILENAME.toString());
@@ -49,6 +54,7 @@ public class PlacemarkTab extends BaseTab {
     private final RadioButton mSymbolAsPhotoRadioButton = new RadioButton(Dict.PHOTO.toString());
     private final RadioButton mSymbolAsPinRadioButton = new RadioButton(Dict.PIN.toString());
     private final ToggleGroup mSymbolToggleGroup = new ToggleGroup();
+    private final CheckBox mTiledCheckBox = new CheckBox(mBundle.getString("PlacemarkTab.tiledCheckBox"));
     private final CheckBox mTimestampCheckBox = new CheckBox(mBundle.getString("PlacemarkTab.timestampCheckBox"));
     private final Spinner<Double> mZoomSpinner = new Spinner(1.0, 10.0, 1.0, 0.1);
 
@@ -68,6 +74,11 @@ public class PlacemarkTab extends BaseTab {
         mScaleSpinner.getValueFactory().setValue(p.getScale());
         mZoomSpinner.getValueFactory().setValue(p.getZoom());
         mTimestampCheckBox.setSelected(p.isTimestamp());
+        mTiledCheckBox.setSelected(p.isTiled());
+        mClusterCheckBox.setSelected(p.isCluster());
+        mCollapseCheckBox.setSelected(p.isCollapse());
+        mCollapseDistanceSpinner.getValueFactory().setValue(p.getCollapseDistance());
+        mCollapseTimeSpinner.getValueFactory().setValue(p.getCollapseTime());
 
         RadioButton nameByRadioButton;
         switch (p.getNameBy()) {
@@ -114,6 +125,11 @@ public class PlacemarkTab extends BaseTab {
         p.setScale(mScaleSpinner.getValue());
         p.setZoom(mZoomSpinner.getValue());
         p.setTimestamp(mTimestampCheckBox.isSelected());
+        p.setTiled(mTiledCheckBox.isSelected());
+        p.setCluster(mClusterCheckBox.isSelected());
+        p.setCollapse(mCollapseCheckBox.isSelected());
+        p.setCollapseDistance(mCollapseDistanceSpinner.getValue());
+        p.setCollapseTime(mCollapseTimeSpinner.getValue());
 
         NameBy nameBy = null;
         Toggle nameToggle = mNameByToggleGroup.getSelectedToggle();
@@ -149,7 +165,9 @@ public class PlacemarkTab extends BaseTab {
 
         mScaleSpinner.setEditable(true);
         mZoomSpinner.setEditable(true);
-        FxHelper.autoCommitSpinners(mScaleSpinner, mZoomSpinner);
+        mCollapseDistanceSpinner.setEditable(true);
+        mCollapseTimeSpinner.setEditable(true);
+        FxHelper.autoCommitSpinners(mScaleSpinner, mZoomSpinner, mCollapseDistanceSpinner, mCollapseTimeSpinner);
 
         mNameByFileRadioButton.setToggleGroup(mNameByToggleGroup);
         mNameByDateRadioButton.setToggleGroup(mNameByToggleGroup);
@@ -174,6 +192,8 @@ public class PlacemarkTab extends BaseTab {
         mSymbolAsPinRadioButton.setToggleGroup(mSymbolToggleGroup);
         Label scaleLabel = new Label(Dict.SCALE.toString());
         Label zoomLabel = new Label(Dict.ZOOM.toString());
+        Label collapseDistanceLabel = new Label(mBundle.getString("PlacemarkTab.collapseDistanceLabel"));
+        Label collapseTimeLabel = new Label(mBundle.getString("PlacemarkTab.collapseTimeLabel"));
 
         Insets topInsets = new Insets(8, 0, 0, 0);
         VBox.setMargin(mTimestampCheckBox, topInsets);
@@ -186,9 +206,19 @@ public class PlacemarkTab extends BaseTab {
                 mScaleSpinner,
                 zoomLabel,
                 mZoomSpinner,
-                mTimestampCheckBox
+                mTimestampCheckBox,
+                mTiledCheckBox,
+                mClusterCheckBox,
+                mCollapseCheckBox,
+                collapseDistanceLabel,
+                mCollapseDistanceSpinner,
+                collapseTimeLabel,
+                mCollapseTimeSpinner
         );
 
+        mTiledCheckBox.setTooltip(new Tooltip(mBundle.getString("PlacemarkTab.tiledCheckBox.toolTip")));
+        mClusterCheckBox.setTooltip(new Tooltip(mBundle.getString("PlacemarkTab.clusterCheckBox.toolTip")));
+
         addTopPadding(
                 mNameByFileRadioButton,
                 mNameByDateRadioButton,
@@ -197,10 +227,16 @@ public class PlacemarkTab extends BaseTab {
                 mSymbolAsPhotoRadioButton,
                 mSymbolAsPinRadioButton,
                 scaleLabel,
-                zoomLabel
+                zoomLabel,
+                mCollapseCheckBox,
+                collapseDistanceLabel,
+                collapseTimeLabel
         );
 
         mDatePatternComboBox.disableProperty().bind(mNameByDateRadioButton.selectedProperty().not());
+        mClusterCheckBox.disableProperty().bind(mTiledCheckBox.selectedProperty().not());
+        mCollapseDistanceSpinner.disableProperty().bind(mCollapseCheckBox.selectedProperty().not());
+        mCollapseTimeSpinner.disableProperty().bind(mCollapseCheckBox.selectedProperty().not());
 
     }
 
@@ -19,6 +19,7 @@ import java.util.function.Predicate;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
@@ -26,6 +27,7 @@ import javafx.scene.layout.VBox;
 import org.controlsfx.glyphfont.FontAwesome;
 import org.controlsfx.validation.Validator;
 import se.trixon.almond.util.Dict;
+import se.trixon.almond.util.fx.FxHelper;
 import se.trixon.almond.util.fx.control.FileChooserPane;
 import se.trixon.mapollage.profile.Profile;
 import se.trixon.mapollage.profile.ProfileSource;
@@ -44,6 +46,9 @@ public class SourceTab extends BaseTab {
     private final TextField mNameTextField = new TextField();
     private final CheckBox mRecursiveCheckBox = new CheckBox(Dict.SUBDIRECTORIES.toString());
     private final FileChooserPane mSourceChooser = new FileChooserPane(Dict.SELECT.toString(), Dict.IMAGE_DIRECTORY.toString(), FileChooserPane.ObjectMode.DIRECTORY, SelectionMode.SINGLE);
+    private final CheckBox mTrackLogCheckBox = new CheckBox(mBundle.getString("SourceTab.trackLogCheckBox"));
+    private final FileChooserPane mTrackLogChooser = new FileChooserPane(Dict.SELECT.toString(), mBundle.getString("SourceTab.trackLogChooserPanel.header"), FileChooserPane.ObjectMode.DIRECTORY, SelectionMode.SINGLE);
+    private final Spinner<Integer> mTrackLogOffsetSpinner = new Spinner(1, 86400, 300, 10);
     private final HBox mhBox = new HBox(8);
     private final VBox mvBox = new VBox();
 
@@ -71,6 +76,12 @@ public class SourceTab extends BaseTab {
         mRecursiveCheckBox.setSelected(p.isRecursive());
         mLinksCheckBox.setSelected(p.isFollowLinks());
         mIncludeCheckBox.setSelected(p.isIncludeNullCoordinate());
+
+        mTrackLogCheckBox.setSelected(p.isTrackLog());
+        mTrackLogChooser.setPath(p.getTrackLogDir());
+        if (p.getTrackLogOffset() > 0) {
+            mTrackLogOffsetSpinner.getValueFactory().setValue(p.getTrackLogOffset());
+        }
     }
 
     @Override
@@ -87,6 +98,10 @@ public class SourceTab extends BaseTab {
         p.setRecursive(mRecursiveCheckBox.isSelected());
         p.setFollowLinks(mLinksCheckBox.isSelected());
         p.setIncludeNullCoordinate(mIncludeCheckBox.isSelected());
+
+        p.setTrackLog(mTrackLogCheckBox.isSelected());
+        p.setTrackLogDir(mTrackLogChooser.getPath());
+        p.setTrackLogOffset(mTrackLogOffsetSpinner.getValue());
     }
 
     private void createUI() {
@@ -94,8 +109,16 @@ public class SourceTab extends BaseTab {
         Label descLabel = new Label(Dict.DESCRIPTION.toString());
         Label filePatternLabel = new Label(Dict.FILE_PATTERN.toString());
         Label excludeLabel = new Label(mBundle.getString("SourceTab.excludeLabel"));
+        Label trackLogOffsetLabel = new Label(mBundle.getString("SourceTab.trackLogOffsetLabel"));
 
         mExcludeTextField.setTooltip(new Tooltip(mBundle.getString("SourceTab.excludeTextField.toolTip")));
+        mTrackLogCheckBox.setTooltip(new Tooltip(mBundle.getString("SourceTab.trackLogCheckBox.toolTip")));
+
+        mTrackLogOffsetSpinner.setEditable(true);
+        FxHelper.autoCommitSpinners(mTrackLogOffsetSpinner);
+        mTrackLogChooser.disableProperty().bind(mTrackLogCheckBox.selectedProperty().not());
+        trackLogOffsetLabel.disableProperty().bind(mTrackLogCheckBox.selectedProperty().not());
+        mTrackLogOffsetSpinner.disableProperty().bind(mTrackLogCheckBox.selectedProperty().not());
 
         mhBox.getChildren().addAll(mRecursiveCheckBox, mLinksCheckBox, mIncludeCheckBox);
 
@@ -104,7 +127,10 @@ public class SourceTab extends BaseTab {
                 mSourceChooser,
                 filePatternLabel,
                 excludeLabel,
-                mhBox
+                mhBox,
+                mTrackLogCheckBox,
+                mTrackLogChooser,
+                trackLogOffsetLabel
         );
 
         mvBox.getChildren().addAll(
@@ -117,7 +143,11 @@ public class SourceTab extends BaseTab {
                 mFilePatternField,
                 excludeLabel,
                 mExcludeTextField,
-                mhBox
+                mhBox,
+                mTrackLogCheckBox,
+                mTrackLogChooser,
+                trackLogOffsetLabel,
+                mTrackLogOffsetSpinner
         );
 
         setContent(mvBox);
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class ConcaveHullTest {
+
+    public ConcaveHullTest() {
+    }
+
+    @Test
+    public void testCollinear() {
+        ConcaveHull concaveHull = new ConcaveHull();
+        for (int i = 0; i < 100; i++) {
+            concaveHull.add(18 + i * 0.001, 59 + i * 0.002);
+        }
+
+        assertNull(concaveHull.getRing(0));
+        assertNull(concaveHull.getRing(Double.POSITIVE_INFINITY));
+
+        concaveHull = new ConcaveHull();
+        for (int i = 0; i < 100; i++) {
+            concaveHull.add(18 + i * 0.001, 59);
+            concaveHull.add(18 + i * 0.001, 59);
+        }
+
+        assertNull(concaveHull.getRing(0));
+    }
+
+    @Test
+    public void testContainsEveryPoint() {
+        Random random = new Random(1);
+        for (double maxEdgeLength : new double[]{0, 100, 1000, Double.POSITIVE_INFINITY}) {
+            ConcaveHull concaveHull = new ConcaveHull();
+            double[] lons = new double[2000];
+            double[] lats = new double[lons.length];
+            for (int i = 0; i < lons.length; i++) {
+                //A ring shaped cloud, so there is something to cut in to
+                double angle = random.nextDouble() * 2 * Math.PI;
+                double radius = 0.02 + random.nextDouble() * 0.01;
+                lons[i] = 18 + radius * Math.cos(angle);
+                lats[i] = 59 + radius * Math.sin(angle);
+                concaveHull.add(lons[i], lats[i]);
+            }
+
+            double[][] ring = concaveHull.getRing(maxEdgeLength);
+            assertRing(ring);
+            for (int i = 0; i < lons.length; i++) {
+                assertTrue(String.format("%f %f outside at %f", lons[i], lats[i], maxEdgeLength), contains(ring, lons[i], lats[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testConvexWithoutMaxEdgeLength() {
+        ConcaveHull concaveHull = new ConcaveHull();
+        ConvexHull convexHull = new ConvexHull();
+        Random random = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            double lon = 18 + random.nextDouble();
+            double lat = 59 + random.nextDouble();
+            concaveHull.add(lon, lat);
+            convexHull.add(lon, lat);
+        }
+
+        assertEquals(convexHull.getRing()[0].length, concaveHull.getRing(Double.POSITIVE_INFINITY)[0].length);
+    }
+
+    @Test
+    public void testDuplicatePoints() {
+        ConcaveHull concaveHull = new ConcaveHull();
+        for (int i = 0; i < 10; i++) {
+            concaveHull.add(18, 59);
+            concaveHull.add(18.01, 59);
+            concaveHull.add(18.01, 59.01);
+            concaveHull.add(18, 59.01);
+            concaveHull.add(18.005, 59.005);
+        }
+
+        assertEquals(5, concaveHull.getRing(Double.POSITIVE_INFINITY)[0].length);
+
+        double[][] ring = concaveHull.getRing(0);
+        assertRing(ring);
+        assertEquals(6, ring[0].length);
+        assertTrue(contains(ring, 18.005, 59.005));
+
+        concaveHull = new ConcaveHull();
+        for (int i = 0; i < 10; i++) {
+            concaveHull.add(18, 59);
+        }
+        assertNull(concaveHull.getRing(0));
+    }
+
+    @Test
+    public void testFewerThanThreePoints() {
+        ConcaveHull concaveHull = new ConcaveHull();
+        assertNull(concaveHull.getRing(0));
+
+        concaveHull.add(18, 59);
+        assertNull(concaveHull.getRing(0));
+
+        concaveHull.add(18.01, 59.01);
+        assertNull(concaveHull.getRing(0));
+
+        concaveHull.add(18.02, 59);
+        assertRing(concaveHull.getRing(0));
+    }
+
+    @Test
+    public void testSmallArea() {
+        ConcaveHull concaveHull = new ConcaveHull();
+        concaveHull.add(18, 59);
+        concaveHull.add(18.00001, 59);
+        concaveHull.add(18, 59.00001);
+
+        assertRing(concaveHull.getRing(0));
+    }
+
+    /**
+     * Asserts a closed, counter clockwise and simple ring.
+     */
+    private void assertRing(double[][] ring) {
+        assertNotNull(ring);
+        double[] xs = ring[0];
+        double[] ys = ring[1];
+        int n = xs.length - 1;
+        assertTrue(n >= 3);
+        assertEquals(xs[0], xs[n], 0);
+        assertEquals(ys[0], ys[n], 0);
+
+        double area = 0;
+        for (int i = 0; i < n; i++) {
+            area += xs[i] * ys[i + 1] - xs[i + 1] * ys[i];
+        }
+        assertTrue(area > 0);
+
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 2; j < n; j++) {
+                if (i == 0 && j == n - 1) {
+                    continue;
+                }
+                assertTrue("self intersecting", !intersects(xs[i], ys[i], xs[i + 1], ys[i + 1], xs[j], ys[j], xs[j + 1], ys[j + 1]));
+            }
+        }
+    }
+
+    private boolean contains(double[][] ring, double x, double y) {
+        double[] xs = ring[0];
+        double[] ys = ring[1];
+        boolean inside = false;
+        for (int i = 0; i < xs.length - 1; i++) {
+            double ax = xs[i];
+            double ay = ys[i];
+            double bx = xs[i + 1];
+            double by = ys[i + 1];
+            if (Math.abs(cross(ax, ay, bx, by, x, y)) < 1e-12
+                    && Math.min(ax, bx) <= x && x <= Math.max(ax, bx)
+                    && Math.min(ay, by) <= y && y <= Math.max(ay, by)) {
+                return true;
+            }
+            if ((ay > y) != (by > y) && x < (bx - ax) * (y - ay) / (by - ay) + ax) {
+                inside = !inside;
+            }
+        }
+
+        return inside;
+    }
+
+    private double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+    private boolean intersects(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+
+        return (d1 > 0 && d2 < 0 || d1 < 0 && d2 > 0) && (d3 > 0 && d4 < 0 || d3 < 0 && d4 > 0);
+    }
+}
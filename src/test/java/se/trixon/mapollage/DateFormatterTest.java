@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class DateFormatterTest {
+
+    private static final String[] PATTERNS = {
+        "yyyy-MM-dd HH:mm:ss.SSS",
+        "yyyy-MM-dd",
+        "yyyyMMdd_HHmmss",
+        "EEEE d MMMM yyyy",
+        "EEE, d MMM yy",
+        "'Week' w, yyyy",
+        "yyyy [ww]",
+        "yyyy#MM",
+        "yyyy|MM?dd*",
+        "{yyyy}/(MM)",
+        "yyyy''MM",
+        "''yyyy 'o''clock' hh:mm a",
+        "'a''b' yyyy",
+        "yy '''' MM",
+        "yyyy/MM/dd F u D",
+        "yyyy-MM-dd'T'HH:mm:ss",
+        "h:mm a, z",
+        "k K"
+    };
+
+    public DateFormatterTest() {
+    }
+
+    @Test
+    public void testFormat() {
+        long[] times = {0, 1539000000123L, 1530403199999L, -86400000L * 400};
+        for (Locale locale : new Locale[]{Locale.ENGLISH, new Locale("sv", "SE")}) {
+            for (String pattern : PATTERNS) {
+                DateFormatter dateFormatter = DateFormatter.ofPattern(pattern, locale);
+                SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern, locale);
+                for (long time : times) {
+                    assertEquals(pattern, simpleDateFormat.format(new Date(time)), dateFormatter.format(time));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFormatDays() {
+        DateFormatter dateFormatter = DateFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+
+        //Twice, the second pass is formatted from the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (long time = 1514764800000L; time < 1546300800000L; time += 3600 * 1000L) {
+                assertEquals(simpleDateFormat.format(new Date(time)), dateFormatter.format(time));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalLetter() {
+        DateFormatter.ofPattern("yyyy-MM-dd q", Locale.ENGLISH);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnterminatedQuote() {
+        DateFormatter.ofPattern("yyyy 'MM", Locale.ENGLISH);
+    }
+}
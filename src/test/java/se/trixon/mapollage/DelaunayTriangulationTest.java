@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class DelaunayTriangulationTest {
+
+    public DelaunayTriangulationTest() {
+    }
+
+    @Test
+    public void testCollinear() {
+        int size = 50;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = (i * 7) % size;
+            ys[i] = 2 * xs[i];
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, size);
+        assertEquals(0, triangulation.getLength());
+        assertEquals(0, triangulation.getHull().length);
+    }
+
+    @Test
+    public void testDelaunay() {
+        Random random = new Random(1);
+        int size = 300;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = random.nextDouble() * 1000;
+            ys[i] = random.nextDouble() * 1000;
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, size);
+        assertValid(triangulation, xs, ys);
+        assertEquals(2 * size - 2 - triangulation.getHull().length, triangulation.getLength() / 3);
+
+        int[] triangles = triangulation.getTriangles();
+        for (int t = 0; t < triangulation.getLength(); t += 3) {
+            int a = triangles[t];
+            int b = triangles[t + 1];
+            int c = triangles[t + 2];
+            for (int p = 0; p < size; p++) {
+                if (p != a && p != b && p != c) {
+                    assertFalse(isInCircle(xs, ys, a, b, c, p));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicatePoints() {
+        Random random = new Random(2);
+        int size = 400;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i += 4) {
+            xs[i] = xs[i + 1] = random.nextInt(20);
+            ys[i] = ys[i + 1] = random.nextInt(20);
+            xs[i + 2] = xs[i + 3] = random.nextInt(20);
+            ys[i + 2] = ys[i + 3] = random.nextInt(20);
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, size);
+        assertValid(triangulation, xs, ys);
+
+        boolean[] used = new boolean[size];
+        for (int e = 0; e < triangulation.getLength(); e++) {
+            used[triangulation.getTriangles()[e]] = true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!used[i]) {
+                boolean duplicate = false;
+                for (int j = 0; j < size; j++) {
+                    duplicate |= used[j] && xs[i] == xs[j] && ys[i] == ys[j];
+                }
+                assertTrue(duplicate);
+            }
+        }
+    }
+
+    @Test
+    public void testFewerThanThreePoints() {
+        double[] xs = {0, 1};
+        double[] ys = {0, 1};
+        for (int size = 0; size < 3; size++) {
+            DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, size);
+            assertEquals(0, triangulation.getLength());
+            assertEquals(0, triangulation.getHull().length);
+        }
+    }
+
+    @Test
+    public void testGrid() {
+        int side = 20;
+        int size = side * side;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = i % side;
+            ys[i] = i / side;
+        }
+
+        DelaunayTriangulation triangulation = new DelaunayTriangulation(xs, ys, size);
+        assertValid(triangulation, xs, ys);
+        assertEquals(2 * (side - 1) * (side - 1), triangulation.getLength() / 3);
+    }
+
+    /**
+     * Asserts opposite half edges that point back, consistently oriented
+     * triangles and a hull of hull edges.
+     */
+    private void assertValid(DelaunayTriangulation triangulation, double[] xs, double[] ys) {
+        int[] triangles = triangulation.getTriangles();
+        int[] halfedges = triangulation.getHalfedges();
+        int length = triangulation.getLength();
+        assertTrue(length > 0);
+        assertEquals(0, length % 3);
+
+        int numOfHullEdges = 0;
+        for (int e = 0; e < length; e++) {
+            int opposite = halfedges[e];
+            if (opposite == -1) {
+                numOfHullEdges++;
+            } else {
+                assertEquals(e, halfedges[opposite]);
+                int next = e % 3 == 2 ? e - 2 : e + 1;
+                int oppositeNext = opposite % 3 == 2 ? opposite - 2 : opposite + 1;
+                assertEquals(triangles[e], triangles[oppositeNext]);
+                assertEquals(triangles[next], triangles[opposite]);
+            }
+        }
+        assertEquals(triangulation.getHull().length, numOfHullEdges);
+
+        for (int t = 0; t < length; t += 3) {
+            int a = triangles[t];
+            int b = triangles[t + 1];
+            int c = triangles[t + 2];
+            double cross = (xs[b] - xs[a]) * (ys[c] - ys[a]) - (ys[b] - ys[a]) * (xs[c] - xs[a]);
+            assertTrue(cross < 0);
+        }
+    }
+
+    private boolean isInCircle(double[] xs, double[] ys, int a, int b, int c, int p) {
+        double dx = xs[a] - xs[p];
+        double dy = ys[a] - ys[p];
+        double ex = xs[b] - xs[p];
+        double ey = ys[b] - ys[p];
+        double fx = xs[c] - xs[p];
+        double fy = ys[c] - ys[p];
+        double ap = dx * dx + dy * dy;
+        double bp = ex * ex + ey * ey;
+        double cp = fx * fx + fy * fy;
+        double determinant = dx * (ey * cp - bp * fy) - dy * (ex * cp - bp * fx) + ap * (ex * fy - ey * fx);
+
+        //Clockwise triangles, a point inside gives a negative determinant
+        return determinant < -1e-6;
+    }
+}
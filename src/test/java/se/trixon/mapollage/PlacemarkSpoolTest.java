@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class PlacemarkSpoolTest {
+
+    public PlacemarkSpoolTest() {
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            for (int i = 0; i < 3000; i++) {
+                placemarkSpool.add(getPlacemark("p" + i, "d" + i), i, -i, i % 4, i * 1000L);
+            }
+
+            assertEquals(3000, placemarkSpool.size());
+            assertEquals(2999, placemarkSpool.getLat(2999), 0);
+            assertEquals(-2999, placemarkSpool.getLon(2999), 0);
+            assertEquals(3, placemarkSpool.getStyle(2999));
+            assertEquals(2999000L, placemarkSpool.getTime(2999));
+            assertEquals(getPlacemarkString("p2999", "d2999"), copy(placemarkSpool, 2999));
+            assertEquals(getPlacemarkString("p0", "d0"), copy(placemarkSpool, 0));
+        }
+    }
+
+    @Test
+    public void testIsMember() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            placemarkSpool.add(getPlacemark("a", null), 0, 0, 0, 0);
+            assertFalse(placemarkSpool.isMember(0));
+        }
+    }
+
+    @Test
+    public void testJoin() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            placemarkSpool.add(getPlacemark("a", "one"), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("b", null), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("c", "three"), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("d", null), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("e", "five"), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("f", null), 0, 0, 0, 0);
+            placemarkSpool.add(getPlacemark("g", null), 0, 0, 0, 0);
+            placemarkSpool.join(0, new int[]{2, 1, -1}, 2);
+            placemarkSpool.join(3, new int[]{4}, 1);
+            placemarkSpool.join(5, new int[]{6}, 1);
+
+            assertFalse(placemarkSpool.isMember(0));
+            assertTrue(placemarkSpool.isMember(1));
+            assertTrue(placemarkSpool.isMember(2));
+            assertFalse(placemarkSpool.isMember(3));
+
+            assertEquals(getPlacemarkString("a", "one-three").replace("-", "<![CDATA[<hr />]]>"), copy(placemarkSpool, 0));
+            assertEquals("", copy(placemarkSpool, 1));
+            assertEquals("", copy(placemarkSpool, 2));
+            assertEquals(getPlacemarkString("d", "five"), copy(placemarkSpool, 3));
+            assertEquals("", copy(placemarkSpool, 4));
+            assertEquals(getPlacemarkString("f", null), copy(placemarkSpool, 5));
+        }
+    }
+
+    private String copy(PlacemarkSpool placemarkSpool, int index) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        KmlWriter writer = new KmlWriter(outputStream);
+        placemarkSpool.copyTo(index, writer);
+        writer.flush();
+
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] getPlacemark(String name, String description) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        KmlWriter writer = new KmlWriter(outputStream);
+        writer.setDepth(3);
+        writer.start("Placemark")
+                .element("name", name)
+                .element("open", true);
+        if (description != null) {
+            writer.element("description", description);
+        }
+        writer.element("styleUrl", "#style")
+                .end()
+                .flush();
+
+        return outputStream.toByteArray();
+    }
+
+    private String getPlacemarkString(String name, String description) throws IOException {
+        return new String(getPlacemark(name, description), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class SpatialIndexTest {
+
+    private static final byte[] PLACEMARK = new byte[0];
+
+    public SpatialIndexTest() {
+    }
+
+    @Test
+    public void testDuplicatePoints() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            for (int i = 0; i < 100; i++) {
+                placemarkSpool.add(PLACEMARK, 59, 18, 0, i);
+            }
+
+            SpatialIndex spatialIndex = new SpatialIndex(placemarkSpool, 0);
+            List<Integer> found = query(spatialIndex, 59, 18, 0);
+            assertEquals(100, found.size());
+            for (int i = 0; i < found.size(); i++) {
+                assertEquals(i, found.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+            SpatialIndex spatialIndex = new SpatialIndex(placemarkSpool, 10);
+            assertTrue(query(spatialIndex, 59, 18, 1000).isEmpty());
+        }
+    }
+
+    @Test
+    public void testGetDistance() {
+        assertEquals(0, SpatialIndex.getDistance(59, 18, 59, 18), 0);
+        assertEquals(111195, SpatialIndex.getDistance(59, 18, 60, 18), 1);
+        assertEquals(111195 * 180, SpatialIndex.getDistance(-90, 0, 90, 0), 180);
+        assertEquals(SpatialIndex.getDistance(59, 18, 60, 19), SpatialIndex.getDistance(60, 19, 59, 18), 1e-6);
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        Random random = new Random(1);
+        for (double baseLat : new double[]{-33.9, 0, 59.3, 78.2}) {
+            try (PlacemarkSpool placemarkSpool = new PlacemarkSpool()) {
+                for (int i = 0; i < 5000; i++) {
+                    placemarkSpool.add(PLACEMARK, baseLat + random.nextGaussian() * 0.01, 18 + random.nextGaussian() * 0.01, 0, i);
+                }
+
+                for (double cellSize : new double[]{0, 10, 100, 1000}) {
+                    SpatialIndex spatialIndex = new SpatialIndex(placemarkSpool, cellSize);
+                    for (int i = 0; i < 50; i++) {
+                        double lat = baseLat + random.nextGaussian() * 0.01;
+                        double lon = 18 + random.nextGaussian() * 0.01;
+                        double radius = random.nextDouble() * 500;
+
+                        List<Integer> expected = new ArrayList<>();
+                        for (int index = 0; index < placemarkSpool.size(); index++) {
+                            if (SpatialIndex.getDistance(lat, lon, placemarkSpool.getLat(index), placemarkSpool.getLon(index)) <= radius) {
+                                expected.add(index);
+                            }
+                        }
+
+                        List<Integer> found = query(spatialIndex, lat, lon, radius);
+                        Collections.sort(found);
+                        assertEquals(expected, found);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Integer> query(SpatialIndex spatialIndex, double lat, double lon, double radius) {
+        List<Integer> found = new ArrayList<>();
+        spatialIndex.query(lat, lon, radius, found::add);
+
+        return found;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Patrik Karlström.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.mapollage;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Patrik Karlström
+ */
+public class TrackTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    public TrackTest() {
+    }
+
+    @Test
+    public void testIndexOf() {
+        Track track = new Track();
+        for (long time : new long[]{10, 20, 20, 30}) {
+            track.add(time, 59, 18);
+        }
+
+        assertEquals(0, track.indexOf(Long.MIN_VALUE));
+        assertEquals(0, track.indexOf(10));
+        assertEquals(1, track.indexOf(11));
+        assertEquals(1, track.indexOf(20));
+        assertEquals(3, track.indexOf(21));
+        assertEquals(4, track.indexOf(31));
+    }
+
+    @Test
+    public void testSimplify() {
+        Track track = new Track();
+        for (int i = 0; i < 100; i++) {
+            track.add(i, 59, 18 + i * 0.001);
+        }
+        assertArrayEquals(new int[]{0, 99}, track.simplify(0, 99, 1));
+        assertArrayEquals(new int[]{10, 11}, track.simplify(10, 11, 1));
+        assertArrayEquals(new int[]{10}, track.simplify(10, 10, 1));
+
+        track = new Track();
+        for (int i = 0; i < 100; i++) {
+            //A zigzag of about 11 meters
+            track.add(i, 59 + (i % 2) * 0.0001, 18 + i * 0.001);
+        }
+        assertEquals(100, track.simplify(0, 99, 0).length);
+        assertEquals(100, track.simplify(0, 99, 5).length);
+        assertArrayEquals(new int[]{0, 99}, track.simplify(0, 99, 20));
+    }
+
+    @Test
+    public void testSort() {
+        Track track = new Track();
+        long[] times = {50, 10, 40, 10, 30, 20, 10};
+        for (int i = 0; i < times.length; i++) {
+            track.add(times[i], i, -i);
+        }
+        track.sort();
+
+        long[] sortedTimes = new long[times.length];
+        double[] sortedLats = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            sortedTimes[i] = track.getTime(i);
+            sortedLats[i] = track.getLat(i);
+            assertEquals(-track.getLat(i), track.getLon(i), 0);
+        }
+
+        assertArrayEquals(new long[]{10, 10, 10, 20, 30, 40, 50}, sortedTimes);
+        assertArrayEquals(new double[]{1, 3, 6, 5, 4, 2, 0}, sortedLats, 0);
+    }
+
+    @Test
+    public void testSplitByGap() {
+        Track track = new Track();
+        assertArrayEquals(new int[]{0}, track.split(HOUR, 100));
+
+        long[] times = {0, HOUR, 2 * HOUR, 4 * HOUR, 5 * HOUR, 5 * HOUR};
+        for (long time : times) {
+            track.add(time, 59, 18);
+        }
+        assertArrayEquals(new int[]{0, 3, 6}, track.split(HOUR, 100));
+        assertArrayEquals(new int[]{0, 6}, track.split(2 * HOUR, 100));
+
+        //About 111 km in an hour
+        track.add(6 * HOUR, 60, 18);
+        assertArrayEquals(new int[]{0, 6, 7}, track.split(2 * HOUR, 20));
+        assertArrayEquals(new int[]{0, 7}, track.split(2 * HOUR, 40));
+    }
+
+    @Test
+    public void testSplitByPeriod() {
+        ZoneId zoneId = ZoneId.systemDefault();
+        long day1 = LocalDate.of(2018, 6, 1).atStartOfDay(zoneId).toInstant().toEpochMilli();
+        long day2 = LocalDate.of(2018, 6, 2).atStartOfDay(zoneId).toInstant().toEpochMilli();
+        long day3 = LocalDate.of(2018, 7, 2).atStartOfDay(zoneId).toInstant().toEpochMilli();
+
+        Track track = new Track();
+        for (long time : new long[]{day1, day1 + HOUR, day2 - 1, day2, day2 + 20 * HOUR, day3}) {
+            track.add(time, 59, 18);
+        }
+
+        assertArrayEquals(new int[]{0, 6}, track.split(null));
+        assertArrayEquals(new int[]{0, 3, 5, 6}, track.split(ChronoUnit.DAYS));
+        assertArrayEquals(new int[]{0, 5, 6}, track.split(ChronoUnit.MONTHS));
+        assertArrayEquals(new int[]{0, 6}, track.split(ChronoUnit.YEARS));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6}, track.split(ChronoUnit.HOURS));
+    }
+}